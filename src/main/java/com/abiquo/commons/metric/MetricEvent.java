@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.metric;
+
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import com.google.common.base.Joiner;
+
+/**
+ * Flight Recorder event of a {@link Timer} measurement or a gauge.
+ * <p>
+ * Only used through its {@link Recorder} if {@link MetricSink#toFlightRecorder()}, so this class
+ * is not loaded in runtimes without Flight Recorder. It is built for Java 11, apart from the rest
+ * of the library.
+ */
+@Name("com.abiquo.Metric")
+@Label("Metric")
+@Category({"Abiquo", "Metrics"})
+@Description("Measurement reported by a Timer or a gauge")
+@StackTrace(false)
+class MetricEvent extends Event
+{
+    private static final EventType TYPE = EventType.getEventType(MetricEvent.class);
+
+    @Label("Metric")
+    String metric;
+
+    @Label("Tags")
+    String tags;
+
+    @Label("Value")
+    @Timespan(Timespan.MILLISECONDS)
+    long valueMs;
+
+    /** The {@link MetricRecorder} of these events, loaded by name where they are reported. */
+    static final class Recorder implements MetricRecorder
+    {
+        @Override
+        public boolean isRecorded()
+        {
+            return TYPE.isEnabled();
+        }
+
+        @Override
+        public Object startIfRecorded()
+        {
+            if (!TYPE.isEnabled())
+            {
+                return null;
+            }
+
+            MetricEvent event = new MetricEvent();
+            event.begin();
+            return event;
+        }
+
+        @Override
+        public void finish(final Object started, final String metricName, final long valueMs,
+            final Map<String, String> tags)
+        {
+            MetricEvent event = (MetricEvent) started;
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.set(metricName, valueMs, tags);
+                event.commit();
+            }
+        }
+
+        @Override
+        public void gauge(final String metricName, final long valueMs,
+            final Map<String, String> tags)
+        {
+            if (TYPE.isEnabled())
+            {
+                MetricEvent event = new MetricEvent();
+                if (event.shouldCommit())
+                {
+                    event.set(metricName, valueMs, tags);
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    private void set(final String metricName, final long valueMs, final Map<String, String> tags)
+    {
+        this.metric = metricName;
+        this.tags = Joiner.on(",").withKeyValueSeparator(":").join(tags);
+        this.valueMs = valueMs;
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.metric;
+
+import java.util.Map;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reports the {@link Timer} measurements and the gauges as Flight Recorder events. Events are
+ * passed as {@link Object}, so the classes built for Java 8 do not depend on the Flight Recorder
+ * API.
+ */
+interface MetricRecorder
+{
+    /** Return whether the events are being recorded, to avoid building them otherwise. */
+    boolean isRecorded();
+
+    /** Starts the event of a timer, or return null if the event is not being recorded. */
+    Object startIfRecorded();
+
+    /** Ends and commits the event returned by {@link #startIfRecorded()}. */
+    void finish(Object started, String metricName, long valueMs, Map<String, String> tags);
+
+    /** Commits the event of an already measured value. */
+    void gauge(String metricName, long valueMs, Map<String, String> tags);
+
+    /**
+     * Return the recorder of {@link MetricEvent}s, or null if they were not built. It is loaded
+     * by name, since the events are only built with JDK 11 or later.
+     */
+    static MetricRecorder flightRecorder()
+    {
+        try
+        {
+            return (MetricRecorder) Class.forName(MetricRecorder.class.getPackage().getName()
+                + ".MetricEvent$Recorder").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e)
+        {
+            LoggerFactory.getLogger(MetricRecorder.class)
+                .warn("Flight Recorder metric events are not available: {}", e.toString());
+            return null;
+        }
+    }
+}
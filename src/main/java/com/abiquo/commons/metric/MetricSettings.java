@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.metric;
+
+import static java.lang.System.getProperty;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Settings and stats of a metric, read once from the system properties:
+ * <ul>
+ * <li><code>abiquo.metric.slowThresholdMs[.&lt;metric&gt;]</code>: measurements taking at least
+ * these milliseconds are captured in the {@link SlowOperations}. Not set by default.</li>
+ * <li><code>abiquo.metric.sampleRate[.&lt;metric&gt;]</code>: fraction of the measurements under
+ * the threshold that are logged, from 0 to 1. Defaults to 1, so all of them are logged.</li>
+ * </ul>
+ * The property suffixed with the metric name takes precedence.
+ */
+final class MetricSettings
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricSettings.class);
+
+    private static final String PREFIX = "abiquo.metric.";
+
+    /** Metric of the measurements that exceed the maximum number of metrics. */
+    static final String OTHER_METRIC = "other";
+
+    private static final int MAX_METRICS = 1024;
+
+    private static final Map<String, MetricSettings> SETTINGS = new ConcurrentHashMap<>();
+
+    final long slowThresholdMs;
+
+    final double sampleRate;
+
+    final MetricStats stats = new MetricStats();
+
+    private MetricSettings(final String metricName)
+    {
+        slowThresholdMs = (long) property("slowThresholdMs", metricName, -1);
+        sampleRate = property("sampleRate", metricName, 1);
+    }
+
+    static MetricSettings of(final String metricName)
+    {
+        MetricSettings settings = SETTINGS.get(metricName);
+        if (settings == null)
+        {
+            settings = SETTINGS.size() < MAX_METRICS
+                ? SETTINGS.computeIfAbsent(metricName, MetricSettings::new)
+                : SETTINGS.computeIfAbsent(OTHER_METRIC, MetricSettings::new);
+        }
+        return settings;
+    }
+
+    static Map<String, MetricSettings> all()
+    {
+        return SETTINGS;
+    }
+
+    boolean isSlow(final long elapsedMs)
+    {
+        return slowThresholdMs >= 0 && elapsedMs >= slowThresholdMs;
+    }
+
+    /** Return whether a measurement under the threshold must be logged. */
+    boolean sample()
+    {
+        return sampleRate >= 1
+            || sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    private static double property(final String name, final String metricName,
+        final double defaultValue)
+    {
+        String value = getProperty(PREFIX + name + "." + metricName, getProperty(PREFIX + name));
+        if (value == null)
+        {
+            return defaultValue;
+        }
+
+        try
+        {
+            return Double.parseDouble(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            LOGGER.warn("Invalid {} '{}' for metric {}, using {}", name, value, metricName,
+                defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.metric;
+
+import static java.lang.System.getProperty;
+
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Where the {@link Timer} measurements and the checks are reported: as Nimrod gauge log events,
+ * as JDK Flight Recorder events, or both.
+ * <p>
+ * Configured with the <code>abiquo.metric.sink</code> property, <code>both</code> by default.
+ * Flight Recorder events cost almost nothing while there is no recording, and are not reported if
+ * the runtime does not support them.
+ */
+public enum MetricSink
+{
+    LOG(true, false), JFR(false, true), BOTH(true, true);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricSink.class);
+
+    /** The configured sink, without Flight Recorder if the runtime does not support it. */
+    public static final MetricSink CONFIGURED = configured();
+
+    private final boolean log;
+
+    private final boolean flightRecorder;
+
+    private MetricSink(final boolean log, final boolean flightRecorder)
+    {
+        this.log = log;
+        this.flightRecorder = flightRecorder;
+    }
+
+    /** Return whether the measurements are logged as Nimrod gauges. */
+    public boolean toLog()
+    {
+        return log;
+    }
+
+    /** Return whether the measurements are reported as Flight Recorder events. */
+    public boolean toFlightRecorder()
+    {
+        return flightRecorder;
+    }
+
+    private static MetricSink configured()
+    {
+        String value = getProperty("abiquo.metric.sink", "both");
+        MetricSink sink;
+        try
+        {
+            sink = valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e)
+        {
+            LOGGER.warn("Invalid metric sink '{}', using both", value);
+            sink = BOTH;
+        }
+
+        if (sink.flightRecorder && !isFlightRecorderAvailable())
+        {
+            if (sink == JFR)
+            {
+                LOGGER.warn("Flight Recorder is not available, logging the metrics instead");
+            }
+            return LOG;
+        }
+        return sink;
+    }
+
+    /**
+     * Return whether the runtime supports Flight Recorder events. It is checked by name, so the
+     * event classes are never loaded in older runtimes.
+     */
+    private static boolean isFlightRecorderAvailable()
+    {
+        try
+        {
+            return (Boolean) Class.forName("jdk.jfr.FlightRecorder").getMethod("isAvailable")
+                .invoke(null);
+        }
+        catch (Exception | LinkageError e)
+        {
+            return false;
+        }
+    }
+}
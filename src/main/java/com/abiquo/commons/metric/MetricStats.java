@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.metric;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregated measurements of a metric reported by {@link Timer}.
+ */
+public final class MetricStats
+{
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    private final LongAdder slow = new LongAdder();
+
+    MetricStats()
+    {
+    }
+
+    void record(final long elapsedNanos, final boolean isSlow)
+    {
+        count.increment();
+        totalNanos.add(elapsedNanos);
+        maxNanos.accumulate(elapsedNanos);
+        if (isSlow)
+        {
+            slow.increment();
+        }
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    public double getMeanMs()
+    {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / (n * 1000000.0);
+    }
+
+    public double getMaxMs()
+    {
+        return maxNanos.get() / 1000000.0;
+    }
+
+    /** Return the number of measurements over the slow threshold of the metric. */
+    public long getSlowCount()
+    {
+        return slow.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("count=%d, meanMs=%.3f, maxMs=%.3f, slow=%d", getCount(),
+            getMeanMs(), getMaxMs(), getSlowCount());
+    }
+}
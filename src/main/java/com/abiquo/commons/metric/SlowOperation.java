@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.metric;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A measurement of a {@link Timer}, captured because it took longer than the slow threshold of its
+ * metric, or because it was nested in one of them.
+ */
+public final class SlowOperation
+{
+    private final String metricName;
+
+    private final Map<String, String> tags;
+
+    private final long startedAt;
+
+    private final long durationMs;
+
+    private final String thread;
+
+    private final List<SlowOperation> nested;
+
+    SlowOperation(final String metricName, final Map<String, String> tags, final long startedAt,
+        final long durationMs, final String thread, final List<SlowOperation> nested)
+    {
+        this.metricName = metricName;
+        this.tags = tags;
+        this.startedAt = startedAt;
+        this.durationMs = durationMs;
+        this.thread = thread;
+        this.nested = nested != null ? nested : Collections.<SlowOperation> emptyList();
+    }
+
+    public String getMetricName()
+    {
+        return metricName;
+    }
+
+    public Map<String, String> getTags()
+    {
+        return tags;
+    }
+
+    /** Return when the operation started, in milliseconds since the epoch. */
+    public long getStartedAt()
+    {
+        return startedAt;
+    }
+
+    public long getDurationMs()
+    {
+        return durationMs;
+    }
+
+    public String getThread()
+    {
+        return thread;
+    }
+
+    /** Return the timers closed inside this one, if nested timers are captured. */
+    public List<SlowOperation> getNested()
+    {
+        return nested;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder out = new StringBuilder();
+        appendTo(out, "");
+        return out.toString();
+    }
+
+    /** Appends this operation and its nested ones, one per line. */
+    public void appendTo(final StringBuilder out, final String indent)
+    {
+        out.append(indent).append(metricName).append(' ').append(durationMs).append("ms ")
+            .append(tags).append(" thread=").append(thread).append(" startedAt=")
+            .append(startedAt).append('\n');
+        for (SlowOperation operation : nested)
+        {
+            operation.appendTo(out, indent + "  ");
+        }
+    }
+}
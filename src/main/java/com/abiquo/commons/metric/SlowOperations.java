@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.metric;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded in-memory ring with the last {@link SlowOperation}s. When full, the oldest operations
+ * are overwritten. The capacity is set with the <code>abiquo.metric.slowCapacity</code> property
+ * and defaults to 256.
+ */
+public final class SlowOperations
+{
+    private static final int CAPACITY =
+        Math.max(1, Integer.getInteger("abiquo.metric.slowCapacity", 256));
+
+    private static final AtomicReferenceArray<SlowOperation> RING =
+        new AtomicReferenceArray<>(CAPACITY);
+
+    private static final AtomicLong CAPTURED = new AtomicLong();
+
+    private SlowOperations()
+    {
+    }
+
+    static void record(final SlowOperation operation)
+    {
+        RING.set((int) (CAPTURED.getAndIncrement() % CAPACITY), operation);
+    }
+
+    /** Return the operations in the ring, the most recent first. */
+    public static List<SlowOperation> snapshot()
+    {
+        long captured = CAPTURED.get();
+        int size = (int) Math.min(captured, CAPACITY);
+
+        List<SlowOperation> operations = new ArrayList<>(size);
+        for (long i = captured - 1; i >= captured - size; i--)
+        {
+            SlowOperation operation = RING.get((int) (i % CAPACITY));
+            if (operation != null)
+            {
+                operations.add(operation);
+            }
+        }
+        return operations;
+    }
+
+    /** Return the number of operations captured since the start, including the overwritten. */
+    public static long getCaptured()
+    {
+        return CAPTURED.get();
+    }
+}
@@ -7,9 +7,14 @@
 package com.abiquo.commons.metric;
 
 import static java.lang.System.currentTimeMillis;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
@@ -20,35 +25,208 @@ import com.google.common.base.Joiner;
  * Measure the time to take an action and report *the elapsed milliseconds* as a Nimrod gauge log
  * event
  * <p>
+ * All the measurements are added to the {@link MetricStats} of the metric. If the metric has a
+ * slow threshold, set with the <code>abiquo.metric.slowThresholdMs[.&lt;metric&gt;]</code>
+ * property, the measurements over it are captured in the {@link SlowOperations}, and only the
+ * fraction set with <code>abiquo.metric.sampleRate[.&lt;metric&gt;]</code> of the others is
+ * logged. When the <code>abiquo.metric.captureNested</code> property is enabled, the timers closed
+ * inside a slow one in the same thread are captured with it. Closing a timer also ends the timers
+ * opened inside it that are still open, which are then recorded without their outer timer.
+ * <p>
+ * Depending on the {@link MetricSink}, timers are also reported as Flight Recorder events, so they
+ * can be correlated with the rest of the recording.
+ * <p>
  * <a href="https//:github.com/sbtourist/nimrod>Nimrod</a>
  */
 public class Timer implements Closeable
 {
     private static final String TEMPLATE_WITH_TAGS = "[nimrod][{}][gauge][{}][{}][{}]";
 
+    private static final boolean LOG = MetricSink.CONFIGURED.toLog();
+
+    /** Flight Recorder events of the measurements, or null if they are not reported. */
+    private static final MetricRecorder RECORDER =
+        MetricSink.CONFIGURED.toFlightRecorder() ? MetricRecorder.flightRecorder() : null;
+
+    private static final boolean FLIGHT_RECORDER = RECORDER != null;
+
+    private static final boolean CAPTURE_NESTED =
+        Boolean.getBoolean("abiquo.metric.captureNested");
+
+    /** Maximum number of nested timers captured in each timer. */
+    private static final int MAX_NESTED = 32;
+
+    /** Innermost open timer of each thread, if nested timers are captured. */
+    private static final ThreadLocal<Timer> CURRENT = new ThreadLocal<>();
+
     private final Logger log;
 
     private final String metricName;
 
     private final Map<String, String> tags;
 
+    private final MetricSettings settings;
+
+    private final long startedAt;
+
     private final long start;
 
+    private final Timer parent;
+
+    /** Flight Recorder event, or null if it is not being recorded. */
+    private final Object event;
+
+    private List<SlowOperation> nested;
+
+    /** Whether the timer is closed, so it is skipped if it was closed out of order. */
+    private volatile boolean closed;
+
     public Timer(final Logger log, final String metricName, final Map<String, String> tags)
     {
         this.log = log;
         this.metricName = metricName;
         this.tags = tags;
-        this.start = currentTimeMillis();
+        this.settings = MetricSettings.of(metricName);
+        this.startedAt = currentTimeMillis();
+        this.start = nanoTime();
+        this.event = FLIGHT_RECORDER ? RECORDER.startIfRecorded() : null;
+
+        if (CAPTURE_NESTED)
+        {
+            parent = open(CURRENT.get());
+            CURRENT.set(this);
+        }
+        else
+        {
+            parent = null;
+        }
     }
 
     @Override
     public void close() throws IOException
     {
-        long end = currentTimeMillis();
-        long value = end - start;
+        closed = true;
+        long elapsedNanos = nanoTime() - start;
+        long elapsedMs = NANOSECONDS.toMillis(elapsedNanos);
+        boolean slow = settings.isSlow(elapsedMs);
+        settings.stats.record(elapsedNanos, slow);
+        if (event != null)
+        {
+            RECORDER.finish(event, metricName, elapsedMs, tags);
+        }
+
+        SlowOperation operation = null;
+        Timer outer = CAPTURE_NESTED ? unwind() : null;
+        if (outer != null)
+        {
+            operation = capture(elapsedMs);
+            outer.addNested(operation);
+        }
+
+        if (slow)
+        {
+            SlowOperations.record(operation != null ? operation : capture(elapsedMs));
+            log(log, metricName, elapsedMs, tags);
+        }
+        else if (settings.sample())
+        {
+            log(log, metricName, elapsedMs, tags);
+        }
+    }
+
+    /**
+     * Makes the innermost open timer outside this one the current timer of the thread, discarding
+     * the timers opened inside this one that were not closed. The thread local is removed when
+     * there are no open timers, so it does not keep the timers, nor their class loader, alive.
+     *
+     * @return the timer this one is nested in, or null if there is none or this timer was not
+     *         opened in this thread.
+     */
+    private Timer unwind()
+    {
+        for (Timer timer = CURRENT.get(); timer != null; timer = timer.parent)
+        {
+            if (timer == this)
+            {
+                Timer outer = open(parent);
+                if (outer == null)
+                {
+                    CURRENT.remove();
+                }
+                else
+                {
+                    CURRENT.set(outer);
+                }
+                return outer;
+            }
+        }
+        return null;
+    }
+
+    /** Return the given timer or its innermost open ancestor. */
+    private static Timer open(final Timer timer)
+    {
+        Timer open = timer;
+        while (open != null && open.closed)
+        {
+            open = open.parent;
+        }
+        return open;
+    }
+
+    private SlowOperation capture(final long elapsedMs)
+    {
+        return new SlowOperation(metricName, tags, startedAt, elapsedMs,
+            Thread.currentThread().getName(), nested);
+    }
+
+    private void addNested(final SlowOperation operation)
+    {
+        if (nested == null)
+        {
+            nested = new ArrayList<>();
+        }
+        if (nested.size() < MAX_NESTED)
+        {
+            nested.add(operation);
+        }
+    }
 
-        log.debug(TEMPLATE_WITH_TAGS, new Object[] {end, metricName, value,
-        Joiner.on(",").withKeyValueSeparator(":").join(tags)});
+    /** Return the aggregated measurements of the timers, by metric name. */
+    public static Map<String, MetricStats> stats()
+    {
+        Map<String, MetricStats> stats = new LinkedHashMap<>();
+        MetricSettings.all().forEach((name, settings) -> stats.put(name, settings.stats));
+        return stats;
+    }
+
+    /**
+     * Return whether {@link #gauge(Logger, String, long, Map)} reports anything, to avoid building
+     * the tags otherwise.
+     */
+    public static boolean isGaugeEnabled(final Logger log)
+    {
+        return LOG && log.isDebugEnabled() || FLIGHT_RECORDER && RECORDER.isRecorded();
+    }
+
+    /** Report an already measured value as a Nimrod gauge log event and Flight Recorder event. */
+    public static void gauge(final Logger log, final String metricName, final long value,
+        final Map<String, String> tags)
+    {
+        log(log, metricName, value, tags);
+        if (FLIGHT_RECORDER)
+        {
+            RECORDER.gauge(metricName, value, tags);
+        }
+    }
+
+    private static void log(final Logger log, final String metricName, final long value,
+        final Map<String, String> tags)
+    {
+        if (LOG && log.isDebugEnabled())
+        {
+            log.debug(TEMPLATE_WITH_TAGS, new Object[] {currentTimeMillis(), metricName, value,
+            Joiner.on(",").withKeyValueSeparator(":").join(tags)});
+        }
     }
 }
@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.servlet.ServletContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.abiquo.commons.metric.Timer;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Records the time spent in the named phases of the startup and shutdown of a webapp.
+ * <p>
+ * There is one timeline per {@link ServletContext}, created when first requested. Listeners and
+ * other startup code time their phases with {@link #phase(String)}, and the
+ * {@link com.abiquo.commons.web.listener.StartupTimelineListener}, declared last, logs the startup
+ * timeline as a single line once all the listeners have been initialized.
+ * Each phase is also reported as a <code>startup.&lt;phase&gt;</code> Nimrod gauge.
+ */
+public class StartupTimeline
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(StartupTimeline.class);
+
+    /** Name of the {@link ServletContext} attribute holding the timeline. */
+    public static final String ATTRIBUTE = StartupTimeline.class.getName();
+
+    private final String contextPath;
+
+    private final long createdAt = nanoTime();
+
+    private final Queue<Phase> phases = new ConcurrentLinkedQueue<>();
+
+    private volatile long completedMs = -1;
+
+    private StartupTimeline(final String contextPath)
+    {
+        this.contextPath = contextPath;
+    }
+
+    /** Return the timeline of the given context, creating it if this is the first phase. */
+    public static StartupTimeline get(final ServletContext servletContext)
+    {
+        synchronized (StartupTimeline.class)
+        {
+            StartupTimeline timeline = (StartupTimeline) servletContext.getAttribute(ATTRIBUTE);
+            if (timeline == null)
+            {
+                timeline = new StartupTimeline(servletContext.getContextPath());
+                servletContext.setAttribute(ATTRIBUTE, timeline);
+            }
+            return timeline;
+        }
+    }
+
+    /**
+     * Starts timing a phase. The phase ends when the returned object is closed:
+     *
+     * <pre>
+     * try (StartupTimeline.Phase phase = StartupTimeline.get(ctx).phase(&quot;connect&quot;))
+     * {
+     *     ...
+     * }
+     * </pre>
+     */
+    public Phase phase(final String name)
+    {
+        return new Phase(name);
+    }
+
+    /** Return the finished phases, sorted by start time. */
+    public List<Phase> getPhases()
+    {
+        List<Phase> sorted = new ArrayList<>(phases);
+        Collections.sort(sorted, Comparator.comparingLong(Phase::getOffsetMs));
+        return sorted;
+    }
+
+    /** Return the time from the first phase to the end of the startup, or -1 if not finished. */
+    public long getCompletedMs()
+    {
+        return completedMs;
+    }
+
+    /**
+     * Marks the end of the startup and logs the timeline. Called by the
+     * {@link com.abiquo.commons.web.listener.StartupTimelineListener} only.
+     */
+    public void completed()
+    {
+        completedMs = elapsedMs(createdAt);
+
+        StringBuilder line = new StringBuilder();
+        line.append("[startup][").append(contextPath).append("][total:").append(completedMs)
+            .append("][jvmUptime:").append(ManagementFactory.getRuntimeMXBean().getUptime())
+            .append("]");
+        for (Phase phase : getPhases())
+        {
+            line.append("[").append(phase).append("]");
+        }
+
+        LOGGER.info(line.toString());
+    }
+
+    private static long elapsedMs(final long since)
+    {
+        return NANOSECONDS.toMillis(nanoTime() - since);
+    }
+
+    /** A named phase of the startup or shutdown. */
+    public final class Phase implements Closeable
+    {
+        private final String name;
+
+        private final String thread = Thread.currentThread().getName();
+
+        private final long offsetMs = elapsedMs(createdAt);
+
+        private final long start = nanoTime();
+
+        private volatile long durationMs = -1;
+
+        private Phase(final String name)
+        {
+            this.name = name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getThread()
+        {
+            return thread;
+        }
+
+        /** Milliseconds from the creation of the timeline to the start of the phase. */
+        public long getOffsetMs()
+        {
+            return offsetMs;
+        }
+
+        public long getDurationMs()
+        {
+            return durationMs;
+        }
+
+        @Override
+        public void close()
+        {
+            if (durationMs < 0)
+            {
+                durationMs = elapsedMs(start);
+                phases.add(this);
+
+                Map<String, String> tags =
+                    ImmutableMap.of("context", contextPath, "thread", thread);
+                Timer.gauge(LOGGER, "startup." + name, durationMs, tags);
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return name + ":" + offsetMs + "+" + durationMs;
+        }
+    }
+}
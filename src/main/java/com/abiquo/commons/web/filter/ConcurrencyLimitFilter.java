@@ -0,0 +1,331 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.filter;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.abiquo.commons.web.servlet.AbstractCheckServlet;
+import com.abiquo.commons.web.servlet.CheckStatus;
+import com.google.common.net.HttpHeaders;
+
+/**
+ * Limits the number of requests processed concurrently, rejecting the excess with a
+ * {@link HttpServletResponse#SC_SERVICE_UNAVAILABLE} and a <code>Retry-After</code> header
+ * instead of letting them pile up when a backend slows down.
+ * <p>
+ * The limit adapts to the measured latency: it grows while the latency of the requests stays
+ * close to the long term average, and shrinks when it increases. The latencies are collected
+ * without locking, and the limit is updated from them at most every 100ms. Requests to the
+ * {@link #exemptPaths()}, such as the check servlets, are never rejected. Optionally, all the
+ * other requests are rejected while the last {@link CheckStatus} published by the
+ * {@link AbstractCheckServlet} is unhealthy.
+ */
+public class ConcurrencyLimitFilter implements Filter
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyLimitFilter.class);
+
+    /** Updates, each one with the average latency since the previous, in the long term average. */
+    private static final double LONG_WINDOW = 600;
+
+    /** How much the latency can grow before the limit is reduced. */
+    private static final double TOLERANCE = 1.5;
+
+    /** Weight of each new limit, to smooth the changes. */
+    private static final double SMOOTHING = 0.2;
+
+    /** Minimum time between updates of the limit. */
+    private static final long UPDATE_INTERVAL_NANOS = MILLISECONDS.toNanos(100);
+
+    /** Minimum samples to update the limit, so a few requests do not change it. */
+    private static final int MIN_SAMPLES = 10;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final LongAdder rejected = new LongAdder();
+
+    /** Latencies since the last update. */
+    private final LongAdder sampledRttNanos = new LongAdder();
+
+    private final LongAdder samples = new LongAdder();
+
+    /** Highest number of requests in flight since the last update. */
+    private final LongAccumulator sampledInFlight = new LongAccumulator(Math::max, 0);
+
+    /** Whether a request is updating the limit. Guards the estimations. */
+    private final AtomicBoolean updating = new AtomicBoolean();
+
+    private volatile long nextUpdateAt;
+
+    private volatile int limit;
+
+    /** Long term average latency. Guarded by updating. */
+    private double longRttNanos;
+
+    /** Limit with its decimals. Guarded by updating. */
+    private double estimatedLimit;
+
+    private int minLimit;
+
+    private int maxLimit;
+
+    private List<String> exemptPaths;
+
+    private ServletContext servletContext;
+
+    /**
+     * Return the initial concurrency limit.
+     */
+    protected int initialLimit()
+    {
+        return 20;
+    }
+
+    /**
+     * Return the minimum concurrency limit.
+     */
+    protected int minLimit()
+    {
+        return 4;
+    }
+
+    /**
+     * Return the maximum concurrency limit.
+     */
+    protected int maxLimit()
+    {
+        return 500;
+    }
+
+    /**
+     * Return the seconds clients are told to wait before retrying a rejected request.
+     */
+    protected int retryAfterSeconds()
+    {
+        return 1;
+    }
+
+    /**
+     * Return the paths, relative to the context path, of the requests that are never rejected.
+     * A path also exempts the paths below it, such as <code>/check/db</code> for
+     * <code>/check</code>.
+     */
+    protected List<String> exemptPaths()
+    {
+        return Collections.singletonList("/check");
+    }
+
+    /**
+     * Return a boolean indicating if requests must be rejected while the last check is unhealthy.
+     */
+    protected boolean useCachedHealth()
+    {
+        return false;
+    }
+
+    /**
+     * Return how long the last check is considered when {@link #useCachedHealth()} is enabled.
+     */
+    protected long maxHealthAgeMs()
+    {
+        return 30000;
+    }
+
+    /** Return the current concurrency limit. */
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    /** Return the number of requests being processed. */
+    public int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    /** Return the number of requests rejected. */
+    public long getRejected()
+    {
+        return rejected.sum();
+    }
+
+    @Override
+    public void init(final FilterConfig filterConfig) throws ServletException
+    {
+        LOGGER.info("Loading concurrency limit filter");
+        servletContext = filterConfig.getServletContext();
+        minLimit = minLimit();
+        maxLimit = maxLimit();
+        exemptPaths = exemptPaths();
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit()));
+        limit = (int) estimatedLimit;
+        nextUpdateAt = nanoTime();
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response,
+        final FilterChain chain) throws IOException, ServletException
+    {
+        HttpServletRequest req = (HttpServletRequest) request;
+        if (isExempt(req))
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        if (useCachedHealth() && isUnhealthy())
+        {
+            reject((HttpServletResponse) response);
+            return;
+        }
+
+        int current = inFlight.incrementAndGet();
+        if (current > limit)
+        {
+            inFlight.decrementAndGet();
+            reject((HttpServletResponse) response);
+            return;
+        }
+
+        long start = nanoTime();
+        try
+        {
+            chain.doFilter(request, response);
+        }
+        finally
+        {
+            inFlight.decrementAndGet();
+            long end = nanoTime();
+            sample(end - start, current, end);
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        LOGGER.info("Destroying concurrency limit filter");
+    }
+
+    private boolean isExempt(final HttpServletRequest request)
+    {
+        // Decoded and normalized by the container, unlike the request URI
+        String pathInfo = request.getPathInfo();
+        String path = pathInfo != null ? request.getServletPath() + pathInfo
+            : request.getServletPath();
+        for (String exempt : exemptPaths)
+        {
+            // Whole segments only, so /check does not exempt /checkout
+            if (path.startsWith(exempt) && (path.length() == exempt.length()
+                || path.charAt(exempt.length()) == '/' || exempt.endsWith("/")))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isUnhealthy()
+    {
+        CheckStatus status = CheckStatus.get(servletContext);
+        return status != null && !status.isHealthy() && status.isFresh(maxHealthAgeMs());
+    }
+
+    private void reject(final HttpServletResponse response) throws IOException
+    {
+        rejected.increment();
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds()));
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Records the latency of a request. Once the update interval has elapsed, the first request to
+     * finish updates the limit, and the others carry on.
+     */
+    private void sample(final long rttNanos, final int inFlightAtStart, final long now)
+    {
+        sampledRttNanos.add(rttNanos);
+        samples.increment();
+        sampledInFlight.accumulate(inFlightAtStart);
+
+        if (now - nextUpdateAt >= 0 && updating.compareAndSet(false, true))
+        {
+            try
+            {
+                update(now);
+            }
+            finally
+            {
+                updating.set(false);
+            }
+        }
+    }
+
+    /**
+     * Adjusts the limit with the gradient between the long term and the sampled latencies, plus a
+     * small allowance to probe for more capacity.
+     */
+    private void update(final long now)
+    {
+        if (samples.sum() < MIN_SAMPLES)
+        {
+            return;
+        }
+
+        nextUpdateAt = now + UPDATE_INTERVAL_NANOS;
+        long count = samples.sumThenReset();
+        double rttNanos = (double) sampledRttNanos.sumThenReset() / count;
+        long maxInFlight = sampledInFlight.getThenReset();
+
+        if (longRttNanos == 0)
+        {
+            longRttNanos = rttNanos;
+        }
+        else
+        {
+            longRttNanos += (rttNanos - longRttNanos) / LONG_WINDOW;
+        }
+
+        // The latency says nothing about the limit if it is not being used
+        if (maxInFlight < estimatedLimit / 2)
+        {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / rttNanos));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+
+        int previous = limit;
+        limit = (int) estimatedLimit;
+        if (limit != previous)
+        {
+            LOGGER.debug("Concurrency limit changed from {} to {}", previous, limit);
+        }
+    }
+}
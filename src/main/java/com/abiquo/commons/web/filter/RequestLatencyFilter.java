@@ -0,0 +1,345 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.filter;
+
+import static java.lang.System.nanoTime;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.abiquo.commons.metric.Timer;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Records the latency and the status class of the requests, per route.
+ * <p>
+ * Routes are request paths with the identifiers replaced by <code>{id}</code>, so
+ * <code>/vms/123</code> and <code>/vms/456</code> are the same route. The number of routes is
+ * bounded and the requests to new routes are recorded as <code>other</code> once the limit is
+ * reached. Each request updates a few counters, and is also reported as a {@link Timer} gauge when
+ * debug is enabled for this class or Flight Recorder is recording the metrics. Stats are published
+ * as a servlet context attribute named after this class.
+ *
+ * @see Timer
+ */
+public class RequestLatencyFilter implements Filter
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestLatencyFilter.class);
+
+    /** Route of the requests that exceed the maximum number of routes. */
+    public static final String OTHER_ROUTE = "other";
+
+    public static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    private static final String ID_SEGMENT = "{id}";
+
+    private final Map<String, RouteStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * Return the maximum number of routes to record.
+     */
+    protected int maxRoutes()
+    {
+        return 256;
+    }
+
+    /**
+     * Return a boolean indicating if the <code>Server-Timing</code> header must be added to the
+     * responses.
+     */
+    protected boolean serverTiming()
+    {
+        return false;
+    }
+
+    /**
+     * Return the route of the request. By default, the path within the application with the
+     * numeric and UUID segments replaced by <code>{id}</code>.
+     */
+    protected String route(final HttpServletRequest request)
+    {
+        String uri = request.getRequestURI();
+        int start = request.getContextPath().length();
+        int end = uri.indexOf(';', start); // Path parameters, such as jsessionid
+        if (end < 0)
+        {
+            end = uri.length();
+        }
+
+        StringBuilder route = new StringBuilder(end - start);
+        int segment = start;
+        while (segment < end)
+        {
+            int next = uri.indexOf('/', segment + 1);
+            if (next < 0 || next > end)
+            {
+                next = end;
+            }
+
+            if (isId(uri, segment + 1, next))
+            {
+                route.append('/').append(ID_SEGMENT);
+            }
+            else
+            {
+                route.append(uri, segment, next);
+            }
+            segment = next;
+        }
+
+        return route.length() == 0 ? "/" : route.toString();
+    }
+
+    /** Return the recorded stats by route. */
+    public Map<String, RouteStats> getStats()
+    {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    @Override
+    public void init(final FilterConfig filterConfig) throws ServletException
+    {
+        LOGGER.info("Loading request latency filter");
+        filterConfig.getServletContext().setAttribute(RequestLatencyFilter.class.getName(), this);
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response,
+        final FilterChain chain) throws IOException, ServletException
+    {
+        HttpServletRequest req = (HttpServletRequest) request;
+        HttpServletResponse res = (HttpServletResponse) response;
+        long start = nanoTime();
+        boolean failed = true;
+
+        ServerTimingResponse timed = serverTiming() ? new ServerTimingResponse(res, start) : null;
+        try
+        {
+            chain.doFilter(request, timed != null ? timed : response);
+            failed = false;
+        }
+        finally
+        {
+            if (timed != null)
+            {
+                timed.addServerTiming();
+            }
+
+            long elapsed = nanoTime() - start;
+            int status = failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : res.getStatus();
+            record(route(req), status, elapsed);
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        LOGGER.info("Destroying request latency filter");
+    }
+
+    private void record(final String route, final int status, final long elapsedNanos)
+    {
+        // The gauge is tagged with the recorded route, so it is bounded too
+        String recorded = route;
+        RouteStats routeStats = stats.get(route);
+        if (routeStats == null)
+        {
+            if (stats.size() >= maxRoutes())
+            {
+                recorded = OTHER_ROUTE;
+            }
+            routeStats = stats.computeIfAbsent(recorded, r -> new RouteStats());
+        }
+        routeStats.record(status, elapsedNanos);
+
+        if (Timer.isGaugeEnabled(LOGGER))
+        {
+            Timer.gauge(LOGGER, "http.request", TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                ImmutableMap.of("route", recorded, "status", String.valueOf(status)));
+        }
+    }
+
+    private static boolean isId(final String uri, final int from, final int to)
+    {
+        if (from >= to)
+        {
+            return false;
+        }
+
+        boolean digits = true;
+        boolean uuid = to - from == 36;
+        for (int i = from; i < to; i++)
+        {
+            char c = uri.charAt(i);
+            digits &= c >= '0' && c <= '9';
+            uuid &= c == '-' || c >= '0' && c <= '9' || c >= 'a' && c <= 'f'
+                || c >= 'A' && c <= 'F';
+        }
+        return digits || uuid;
+    }
+
+    /** Latency and status classes of the requests to a route. */
+    public static class RouteStats
+    {
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        /** Requests by status class, from 1xx to 5xx. */
+        private final LongAdder[] statusClasses = new LongAdder[5];
+
+        RouteStats()
+        {
+            for (int i = 0; i < statusClasses.length; i++)
+            {
+                statusClasses[i] = new LongAdder();
+            }
+        }
+
+        void record(final int status, final long elapsedNanos)
+        {
+            count.increment();
+            totalNanos.add(elapsedNanos);
+            maxNanos.accumulate(elapsedNanos);
+
+            int statusClass = status / 100 - 1;
+            if (statusClass >= 0 && statusClass < statusClasses.length)
+            {
+                statusClasses[statusClass].increment();
+            }
+        }
+
+        public long getCount()
+        {
+            return count.sum();
+        }
+
+        public double getMeanMs()
+        {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / (n * 1000000.0);
+        }
+
+        public double getMaxMs()
+        {
+            return maxNanos.get() / 1000000.0;
+        }
+
+        /**
+         * Return the number of requests with the given status class.
+         *
+         * @param statusClass From 1 (1xx) to 5 (5xx).
+         */
+        public long getCount(final int statusClass)
+        {
+            return statusClasses[statusClass - 1].sum();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("count=%d, meanMs=%.3f, maxMs=%.3f, 2xx=%d, 4xx=%d, 5xx=%d",
+                getCount(), getMeanMs(), getMaxMs(), getCount(2), getCount(4), getCount(5));
+        }
+    }
+
+    /**
+     * Adds the <code>Server-Timing</code> header with the time spent until the response is
+     * committed, since headers cannot be added afterwards.
+     */
+    private static class ServerTimingResponse extends HttpServletResponseWrapper
+    {
+        private final HttpServletResponse response;
+
+        private final long start;
+
+        private boolean added;
+
+        ServerTimingResponse(final HttpServletResponse response, final long start)
+        {
+            super(response);
+            this.response = response;
+            this.start = start;
+        }
+
+        void addServerTiming()
+        {
+            if (!added && !response.isCommitted())
+            {
+                added = true;
+                double elapsedMs = (nanoTime() - start) / 1000000.0;
+                response.addHeader(SERVER_TIMING_HEADER,
+                    String.format(Locale.ROOT, "app;dur=%.1f", elapsedMs));
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException
+        {
+            addServerTiming();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException
+        {
+            addServerTiming();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException
+        {
+            addServerTiming();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(final int sc, final String msg) throws IOException
+        {
+            addServerTiming();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(final int sc) throws IOException
+        {
+            addServerTiming();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendRedirect(final String location) throws IOException
+        {
+            addServerTiming();
+            super.sendRedirect(location);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import static java.lang.System.nanoTime;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache.StartMode;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.leader.LeaderSelector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Locally cached view of the participants of a {@link LeaderSelector}.
+ * <p>
+ * The view is updated by watching the election nodes, so reading it never goes to Zookeeper,
+ * unlike {@link LeaderSelector#getParticipants()}. The participants are identified by the id they
+ * set in the selector.
+ */
+public class ClusterMembership implements Closeable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterMembership.class);
+
+    /** Suffix of the sequential lock nodes created by the {@link LeaderSelector}. */
+    private static final String LOCK_NAME = "lock-";
+
+    /** Notified, from the watcher thread, every time the membership view changes. */
+    public interface Listener
+    {
+        void membershipChanged(View view);
+    }
+
+    /** Immutable snapshot of the membership. */
+    public static final class View
+    {
+        private static final View EMPTY = new View(ImmutableList.<String> of(), 0, 0);
+
+        private final List<String> participants;
+
+        private final long leaderEpoch;
+
+        private final long previousLeaderLeftAt;
+
+        private View(final List<String> participants, final long leaderEpoch,
+            final long previousLeaderLeftAt)
+        {
+            this.participants = participants;
+            this.leaderEpoch = leaderEpoch;
+            this.previousLeaderLeftAt = previousLeaderLeftAt;
+        }
+
+        /** Return the ids of the participants, in election order. The first one is the leader. */
+        public List<String> getParticipants()
+        {
+            return participants;
+        }
+
+        /** Return the id of the current leader, or null if there are no participants. */
+        public String getLeader()
+        {
+            return participants.isEmpty() ? null : participants.get(0);
+        }
+
+        /**
+         * Return the epoch of the current leader, or 0 if there are no participants. It is the
+         * creation transaction of the leader's election node, so it is the same in all the nodes
+         * and increases every time a new leader is elected.
+         */
+        public long getLeaderEpoch()
+        {
+            return leaderEpoch;
+        }
+
+        /**
+         * Return the {@link System#nanoTime()} at which this node saw the election node of the
+         * previous leader removed, or 0 if there was no previous leader. Only meaningful in this
+         * node, to measure the time the cluster has been without a leader.
+         */
+        public long getPreviousLeaderLeftAt()
+        {
+            return previousLeaderLeftAt;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "leader=" + getLeader() + ", epoch=" + leaderEpoch + ", participants="
+                + participants;
+        }
+    }
+
+    private final PathChildrenCache cache;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile View view = View.EMPTY;
+
+    public ClusterMembership(final CuratorFramework client, final String electionPath)
+    {
+        cache = new PathChildrenCache(client, electionPath, true);
+        cache.getListenable().addListener((c, event) -> childEvent(event));
+    }
+
+    public void start() throws Exception
+    {
+        cache.start(StartMode.POST_INITIALIZED_EVENT);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        cache.close();
+        view = View.EMPTY;
+    }
+
+    /** Return the current membership view. */
+    public View getView()
+    {
+        return view;
+    }
+
+    public void addListener(final Listener listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void removeListener(final Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    private void childEvent(final PathChildrenCacheEvent event)
+    {
+        switch (event.getType())
+        {
+            case INITIALIZED:
+            case CHILD_ADDED:
+            case CHILD_UPDATED:
+            case CHILD_REMOVED:
+            case CONNECTION_RECONNECTED:
+                refresh();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void refresh()
+    {
+        List<ChildData> children = new ArrayList<>(cache.getCurrentData());
+        children.sort(Comparator.comparing(ClusterMembership::sequence));
+
+        ImmutableList.Builder<String> participants = ImmutableList.builder();
+        for (ChildData child : children)
+        {
+            byte[] id = child.getData();
+            participants.add(id != null ? new String(id, UTF_8) : child.getPath());
+        }
+
+        View previous = view;
+        long leaderEpoch = children.isEmpty() ? 0 : children.get(0).getStat().getCzxid();
+        List<String> ids = participants.build();
+
+        if (leaderEpoch == previous.leaderEpoch && ids.equals(previous.participants))
+        {
+            return;
+        }
+
+        // Kept while there is no leader, until the next one is elected
+        boolean leaderLeft = previous.leaderEpoch != 0 && leaderEpoch != previous.leaderEpoch;
+        View current = new View(ids, leaderEpoch,
+            leaderLeft ? nanoTime() : previous.previousLeaderLeftAt);
+
+        view = current;
+        LOGGER.debug("Membership changed: {}", current);
+
+        for (Listener listener : listeners)
+        {
+            try
+            {
+                listener.membershipChanged(current);
+            }
+            catch (Exception e)
+            {
+                LOGGER.warn("Membership listener failed", e);
+            }
+        }
+    }
+
+    /** Return the sequence of the lock node, to sort the participants in election order. */
+    private static String sequence(final ChildData child)
+    {
+        String path = child.getPath();
+        int index = path.lastIndexOf(LOCK_NAME);
+        return index >= 0 ? path.substring(index + LOCK_NAME.length()) : path;
+    }
+}
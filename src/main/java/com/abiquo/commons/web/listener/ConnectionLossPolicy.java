@@ -0,0 +1,28 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+/**
+ * What the leader does when its connection to the Zookeeper cluster is interrupted.
+ *
+ * @see LeadElectionContextListener
+ */
+public enum ConnectionLossPolicy
+{
+    /**
+     * Relinquish the leadership as soon as the connection is suspended. The node will enter a new
+     * election once the connection is recovered.
+     */
+    RELINQUISH,
+
+    /**
+     * Pause the leader work when the connection is suspended and resume it when the connection is
+     * recovered with the same session, without a new election. The leadership is relinquished if
+     * the connection is lost or the session has expired.
+     */
+    PAUSE;
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Assigns partitions to cluster members using a hash ring with virtual nodes, so that a member
+ * joining or leaving only moves the partitions it takes or releases.
+ */
+final class ConsistentHashRing
+{
+    /** Virtual nodes per member, to spread the partitions evenly. */
+    private static final int VIRTUAL_NODES = 128;
+
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
+    private final NavigableMap<Integer, String> ring = new TreeMap<>();
+
+    ConsistentHashRing(final Collection<String> members)
+    {
+        for (String member : members)
+        {
+            for (int i = 0; i < VIRTUAL_NODES; i++)
+            {
+                ring.put(hash(member + "#" + i), member);
+            }
+        }
+    }
+
+    /** Return the member owning the given partition, or null if there are no members. */
+    String ownerOf(final String partition)
+    {
+        if (ring.isEmpty())
+        {
+            return null;
+        }
+
+        Map.Entry<Integer, String> owner = ring.ceilingEntry(hash(partition));
+        return owner != null ? owner.getValue() : ring.firstEntry().getValue();
+    }
+
+    /** Return the partitions owned by the given member. */
+    Set<String> partitionsOf(final String member, final Collection<String> partitions)
+    {
+        Set<String> owned = new HashSet<>();
+        for (String partition : partitions)
+        {
+            if (member.equals(ownerOf(partition)))
+            {
+                owned.add(partition);
+            }
+        }
+        return owned;
+    }
+
+    private static int hash(final String key)
+    {
+        return HASH.hashString(key, UTF_8).asInt();
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import static java.lang.Integer.valueOf;
+import static java.lang.System.getProperty;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryNTimes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.abiquo.commons.web.ClusterConstants;
+
+/**
+ * Zookeeper connection settings and clients shared by the cluster aware context listeners.
+ * <p>
+ * Clients are reference counted and shared by connection string, so all the listeners loaded by the
+ * same classloader use a single zookeeper session. To share them among several webapps, this
+ * library must be deployed in the common classloader of the container.
+ */
+public final class CuratorClients
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(CuratorClients.class);
+
+    /** Tune {@link CuratorFrameworkFactory}. Connection timeout */
+    static final int ZK_CONNECTION_TIMEOUT_MS =
+        valueOf(getProperty("abiquo.api.zk." + "connectionTimeoutMs", "15000")); // 1sec
+
+    /** Tune {@link CuratorFrameworkFactory}. Num or retries on zk operation */
+    static final int ZK_RETRIES =
+        valueOf(getProperty("abiquo.api.zk." + "connectionRetries", "10")); // 10times
+
+    /** Connection to ZooKeeper server. Property not set indicate non-distributed API. */
+    static final String ZK_SERVER = getProperty(ClusterConstants.ZK_SERVER); // localhost:2181
+
+    /** Tune {@link CuratorFrameworkFactory}. Session timeout */
+    static final int ZK_SESSION_TIMEOUT_MS =
+        valueOf(getProperty("abiquo.api.zk." + "sessionTimeoutMs", "15000")); // 15sec
+
+    /** Tune {@link CuratorFrameworkFactory}. Ms to sleep between retries. */
+    static final int ZK_SLEEP_MS_BETWEEN_RETRIES =
+        valueOf(getProperty("abiquo.api.zk." + "sleepMsBetweenRetries", "5000")); // 1sec
+
+    /**
+     * Identifier of this node in the cluster. Taken from the <code>abiquo.api.zk.nodeId</code>
+     * property or generated once per JVM. It must be a valid zookeeper node name.
+     */
+    public static final String NODE_ID =
+        getProperty("abiquo.api.zk." + "nodeId", localHostName() + "-" + randomSuffix());
+
+    /** Shared clients by connection string. Guarded by the class lock. */
+    private static final Map<String, SharedClient> CLIENTS = new HashMap<>();
+
+    private CuratorClients()
+    {
+    }
+
+    /**
+     * Return a started client connected to the given zookeeper cluster, shared with the rest of
+     * the listeners using the same connection string. It must be released with
+     * {@link #release(CuratorFramework)} and never closed directly.
+     */
+    public static synchronized CuratorFramework acquire(final String connectionString)
+    {
+        SharedClient shared = CLIENTS.get(connectionString);
+        if (shared == null)
+        {
+            shared = new SharedClient(newClient(connectionString));
+            shared.client.start();
+            CLIENTS.put(connectionString, shared);
+            LOGGER.debug("Started shared zookeeper client for {}", connectionString);
+        }
+
+        shared.references++;
+        return shared.client;
+    }
+
+    /** Releases a shared client, closing it if it is no longer used by any listener. */
+    public static synchronized void release(final CuratorFramework client)
+    {
+        Iterator<Map.Entry<String, SharedClient>> it = CLIENTS.entrySet().iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<String, SharedClient> entry = it.next();
+            SharedClient shared = entry.getValue();
+            if (shared.client == client)
+            {
+                if (--shared.references == 0)
+                {
+                    it.remove();
+                    LOGGER.debug("Closing shared zookeeper client for {}", entry.getKey());
+                    client.close();
+                }
+                return;
+            }
+        }
+
+        LOGGER.warn("Released a zookeeper client that is not shared, closing it");
+        client.close();
+    }
+
+    /**
+     * Creates a new, not started, Zk-client for the given connection with the configured session
+     * timeout, connection timeout and retries. It is not shared, so it is closed directly.
+     */
+    static CuratorFramework newClient(final String connectionString)
+    {
+        return CuratorFrameworkFactory.newClient(connectionString, ZK_SESSION_TIMEOUT_MS,
+            ZK_CONNECTION_TIMEOUT_MS, new RetryNTimes(ZK_RETRIES, ZK_SLEEP_MS_BETWEEN_RETRIES));
+    }
+
+    private static String localHostName()
+    {
+        try
+        {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch (UnknownHostException e)
+        {
+            return "localhost";
+        }
+    }
+
+    private static String randomSuffix()
+    {
+        return UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    private static class SharedClient
+    {
+        private final CuratorFramework client;
+
+        private int references;
+
+        SharedClient(final CuratorFramework client)
+        {
+            this.client = client;
+        }
+    }
+}
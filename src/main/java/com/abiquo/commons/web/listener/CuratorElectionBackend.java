@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import org.apache.curator.framework.recipes.leader.LeaderSelector;
+
+/**
+ * Elects the leader with a Curator {@link LeaderSelector} in the zookeeper cluster.
+ * <p>
+ * The selector, the client and the connection state handling remain in the
+ * {@link LeadElectionContextListener}, which is the listener of the selector, so subclasses
+ * overriding {@link LeadElectionContextListener#startZookeeper()} keep working.
+ */
+class CuratorElectionBackend implements ElectionBackend
+{
+    private final LeadElectionContextListener listener;
+
+    CuratorElectionBackend(final LeadElectionContextListener listener)
+    {
+        this.listener = listener;
+    }
+
+    @Override
+    public void connect()
+    {
+        listener.connectZookeeper();
+    }
+
+    @Override
+    public void join()
+    {
+        listener.startZookeeperOrFail();
+    }
+
+    @Override
+    public void leave()
+    {
+        listener.stopZookeeper();
+    }
+}
@@ -19,6 +19,8 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.abiquo.commons.web.StartupTimeline;
+
 public class DisclaimerListener implements ServletContextListener
 {
     private static final String NAME_HOLDER = "#########################";
@@ -27,6 +29,15 @@ public class DisclaimerListener implements ServletContextListener
 
     @Override
     public void contextInitialized(final ServletContextEvent sce)
+    {
+        try (StartupTimeline.Phase phase = StartupTimeline.get(sce.getServletContext())
+            .phase("DisclaimerListener.contextInitialized"))
+        {
+            printDisclaimer(sce);
+        }
+    }
+
+    private void printDisclaimer(final ServletContextEvent sce)
     {
         InputStream disclaimer = Thread.currentThread().getContextClassLoader()
             .getResourceAsStream("META-INF/DISCLAIMER");
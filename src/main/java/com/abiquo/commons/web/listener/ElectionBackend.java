@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+/**
+ * Elects the leader among the nodes running a {@link LeadElectionContextListener}.
+ * <p>
+ * When this node is elected, the backend must call {@link LeadElectionContextListener#lead()}
+ * from a thread of its own, and interrupt that thread to relinquish the leadership. The backend
+ * is selected with the <code>abiquo.election.backend</code> property or by overriding
+ * {@link LeadElectionContextListener#createElectionBackend(javax.servlet.ServletContextEvent)}.
+ */
+public interface ElectionBackend
+{
+    /**
+     * Prepares the backend, such as connecting to the cluster. It runs concurrently with
+     * {@link LeadElectionContextListener#initializeContext(javax.servlet.ServletContextEvent)},
+     * so it must not start the election.
+     */
+    default void connect() throws Exception
+    {
+    }
+
+    /** Joins the election, once the context has been initialized. */
+    void join() throws Exception;
+
+    /** Leaves the election, relinquishing the leadership if held, and releases the resources. */
+    void leave();
+}
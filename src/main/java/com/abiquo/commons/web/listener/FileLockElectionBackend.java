@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.FileLockInterruptionException;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Elects the leader among the nodes of the same host with an exclusive lock on a file.
+ * <p>
+ * The node holding the lock is the leader. The operating system releases the lock as soon as the
+ * leader process exits, even if it is killed, and the lock is then granted to one of the waiting
+ * nodes, so there is no session timeout. The id of the leader is written in the file. All the
+ * nodes must use the same file, and the file system must support locks, which is not the case of
+ * some network file systems.
+ * <p>
+ * The lock file is never opened through a symbolic link, so it cannot be used to overwrite other
+ * files. Still, its directory should only be writable by the user running the nodes.
+ */
+public class FileLockElectionBackend implements ElectionBackend
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileLockElectionBackend.class);
+
+    /** How often to retry while the lock is held by another listener of this JVM. */
+    private static final long POLL_MS = 100;
+
+    /** Time to wait before retrying after a failure, or after failing to take the leadership. */
+    private static final long RETRY_MS = 1000;
+
+    private final LeadElectionContextListener listener;
+
+    private final Path lockFile;
+
+    private volatile boolean closed;
+
+    private Thread elector;
+
+    public FileLockElectionBackend(final LeadElectionContextListener listener, final Path lockFile)
+    {
+        this.listener = listener;
+        this.lockFile = lockFile;
+    }
+
+    @Override
+    public void join() throws IOException
+    {
+        Files.createDirectories(lockFile.toAbsolutePath().getParent());
+
+        elector = new Thread(this::elect, "leader-election-" + lockFile.getFileName());
+        elector.setDaemon(true);
+        elector.start();
+
+        LOGGER.info("Participating in leader election at {}", lockFile);
+    }
+
+    @Override
+    public void leave()
+    {
+        closed = true;
+        if (elector != null)
+        {
+            elector.interrupt();
+            try
+            {
+                elector.join(TimeUnit.SECONDS.toMillis(10));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            elector = null;
+        }
+    }
+
+    private void elect()
+    {
+        while (!closed)
+        {
+            // Closing the channel releases the lock
+            try (FileChannel channel = FileChannel.open(lockFile, CREATE, WRITE, NOFOLLOW_LINKS))
+            {
+                lock(channel);
+                channel.truncate(0);
+                channel.write(ByteBuffer.wrap((listener.getNodeId() + "\n").getBytes(UTF_8)), 0);
+
+                listener.lead();
+            }
+            catch (ClosedByInterruptException | FileLockInterruptionException
+                | InterruptedException e)
+            {
+                // Leaving the election
+            }
+            catch (Exception e)
+            {
+                LOGGER.warn("Leader election at " + lockFile + " failed, retrying", e);
+            }
+
+            if (!closed)
+            {
+                sleep(RETRY_MS);
+            }
+        }
+    }
+
+    /** Blocks until the lock is acquired. */
+    private static FileLock lock(final FileChannel channel)
+        throws IOException, InterruptedException
+    {
+        while (true)
+        {
+            try
+            {
+                return channel.lock();
+            }
+            catch (OverlappingFileLockException e)
+            {
+                // Locks are held by the JVM, so other webapp of this JVM is leading or waiting
+                Thread.sleep(POLL_MS);
+            }
+        }
+    }
+
+    private static void sleep(final long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e)
+        {
+            // Leaving the election
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Forwards the <code>java.util.logging</code> records of the <code>J-Interop</code> framework to
+ * SLF4J.
+ * <p>
+ * Records are queued and forwarded from a background thread, so the DCOM calls do not wait for
+ * the appenders. If the queue is full the records are discarded and counted.
+ */
+class JInteropLogHandler extends Handler
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(JInteropLogHandler.class);
+
+    private static final int QUEUE_CAPACITY = 4096;
+
+    private final BlockingQueue<LogRecord> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private final AtomicLong discarded = new AtomicLong();
+
+    private final Thread forwarder;
+
+    /** Cached level value, since {@link Handler#getLevel()} may be synchronized. */
+    private volatile int levelValue = Level.ALL.intValue();
+
+    private volatile boolean closed;
+
+    JInteropLogHandler()
+    {
+        setFormatter(new SimpleFormatter());
+        forwarder = new Thread(this::forward, "jinterop-log-forwarder");
+        forwarder.setDaemon(true);
+        forwarder.start();
+    }
+
+    @Override
+    public void setLevel(final Level level)
+    {
+        super.setLevel(level);
+        levelValue = level.intValue();
+    }
+
+    @Override
+    public boolean isLoggable(final LogRecord record)
+    {
+        return record != null && record.getLevel().intValue() >= levelValue;
+    }
+
+    @Override
+    public void publish(final LogRecord record)
+    {
+        if (closed || !isLoggable(record))
+        {
+            return;
+        }
+
+        // Resolve the parameters now, since they may change once the call returns
+        record.setMessage(getFormatter().formatMessage(record));
+        record.setParameters(null);
+
+        if (!queue.offer(record))
+        {
+            discarded.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void flush()
+    {
+    }
+
+    /** Stops the forwarder thread, after forwarding the queued records. */
+    @Override
+    public void close()
+    {
+        closed = true;
+        forwarder.interrupt();
+        try
+        {
+            forwarder.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Return the number of records discarded because the queue was full. */
+    long getDiscarded()
+    {
+        return discarded.get();
+    }
+
+    private void forward()
+    {
+        while (!closed || !queue.isEmpty())
+        {
+            try
+            {
+                LogRecord record = closed ? queue.poll() : queue.take();
+                if (record != null)
+                {
+                    log(record);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // Closed, forward the pending records and exit
+            }
+            catch (Exception e)
+            {
+                LOGGER.warn("Cannot forward J-Interop log record", e);
+            }
+        }
+
+        long lost = discarded.get();
+        if (lost > 0)
+        {
+            LOGGER.warn("{} J-Interop log records were discarded because the queue was full",
+                lost);
+        }
+    }
+
+    private static void log(final LogRecord record)
+    {
+        String name = record.getLoggerName() != null ? record.getLoggerName() : "org.jinterop";
+        Logger logger = LoggerFactory.getLogger(name);
+        int level = record.getLevel().intValue();
+        String message = record.getMessage();
+        Throwable thrown = record.getThrown();
+
+        if (level >= Level.SEVERE.intValue())
+        {
+            logger.error(message, thrown);
+        }
+        else if (level >= Level.WARNING.intValue())
+        {
+            logger.warn(message, thrown);
+        }
+        else if (level >= Level.INFO.intValue())
+        {
+            logger.info(message, thrown);
+        }
+        else if (level >= Level.FINE.intValue())
+        {
+            logger.debug(message, thrown);
+        }
+        else
+        {
+            logger.trace(message, thrown);
+        }
+    }
+}
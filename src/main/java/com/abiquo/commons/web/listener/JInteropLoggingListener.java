@@ -12,58 +12,153 @@ import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
 import org.jinterop.dcom.common.JISystem;
+import org.slf4j.ILoggerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+
+import com.abiquo.commons.web.StartupTimeline;
+
 /**
- * Sets the logging level for the <code>J-Interop</code> framework manually, as the
- * SLF4jBridgeHandler does not work.
+ * Forwards the logs of the <code>J-Interop</code> framework to SLF4J, as the SLF4jBridgeHandler
+ * does not work.
+ * <p>
+ * The level of the <code>J-Interop</code> logger is kept in sync with the level of the
+ * <code>org.jinterop</code> SLF4J logger, so disabled levels are discarded by the framework itself.
+ * When the binding is logback, the level is synced again every time the configuration changes.
  * 
  * @author ibarrera
  */
 public class JInteropLoggingListener implements ServletContextListener
 {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JInteropLoggingListener.class);
+
+    private volatile JInteropLogHandler handler;
+
+    private volatile LoggerContextListener levelSync;
+
     @Override
     public void contextInitialized(final ServletContextEvent context)
     {
-        Logger logger = LoggerFactory.getLogger("org.jinterop");
-        Level level = null;
+        try (StartupTimeline.Phase phase = StartupTimeline.get(context.getServletContext())
+            .phase("JInteropLoggingListener.contextInitialized"))
+        {
+            handler = new JInteropLogHandler();
+
+            java.util.logging.Logger jiLogger = JISystem.getLogger();
+            jiLogger.setUseParentHandlers(false);
+            jiLogger.addHandler(handler);
+
+            syncLevel();
+
+            ILoggerFactory factory = LoggerFactory.getILoggerFactory();
+            if (factory instanceof LoggerContext)
+            {
+                levelSync = new LevelSync();
+                ((LoggerContext) factory).addListener(levelSync);
+            }
+        }
+    }
+
+    @Override
+    public void contextDestroyed(final ServletContextEvent context)
+    {
+        ILoggerFactory factory = LoggerFactory.getILoggerFactory();
+        if (levelSync != null && factory instanceof LoggerContext)
+        {
+            ((LoggerContext) factory).removeListener(levelSync);
+        }
+
+        if (handler != null)
+        {
+            java.util.logging.Logger jiLogger = JISystem.getLogger();
+            jiLogger.removeHandler(handler);
+            jiLogger.setUseParentHandlers(true);
+            handler.close();
+        }
+
+        levelSync = null;
+        handler = null;
+    }
+
+    /** Sets the level of the J-Interop logger to the level of the SLF4J logger. */
+    private void syncLevel()
+    {
+        JInteropLogHandler current = handler;
+        if (current == null)
+        {
+            return;
+        }
+
+        Level level = toJulLevel(LoggerFactory.getLogger("org.jinterop"));
 
+        JISystem.getLogger().setLevel(level);
+        current.setLevel(level);
+
+        LOGGER.debug("J-Interop logging level set to {}", level);
+    }
+
+    private static Level toJulLevel(final Logger logger)
+    {
         if (logger.isTraceEnabled())
         {
-            level = Level.FINEST;
+            return Level.FINEST;
         }
         else if (logger.isDebugEnabled())
         {
-            level = Level.FINE;
+            return Level.FINE;
         }
         else if (logger.isInfoEnabled())
         {
-            level = Level.INFO;
+            return Level.INFO;
         }
         else if (logger.isWarnEnabled())
         {
-            level = Level.FINER;
-        }
-        else if (logger.isDebugEnabled())
-        {
-            level = Level.WARNING;
+            return Level.WARNING;
         }
         else if (logger.isErrorEnabled())
         {
-            level = Level.SEVERE;
+            return Level.SEVERE;
         }
         else
         {
-            level = Level.OFF;
+            return Level.OFF;
         }
-
-        JISystem.getLogger().setLevel(level);
     }
 
-    @Override
-    public void contextDestroyed(final ServletContextEvent context)
+    /** Syncs the J-Interop level when the logback configuration changes. */
+    private class LevelSync implements LoggerContextListener
     {
-    }
+        @Override
+        public boolean isResetResistant()
+        {
+            return true;
+        }
+
+        @Override
+        public void onStart(final LoggerContext loggerContext)
+        {
+            syncLevel();
+        }
+
+        @Override
+        public void onReset(final LoggerContext loggerContext)
+        {
+            syncLevel();
+        }
 
+        @Override
+        public void onStop(final LoggerContext loggerContext)
+        {
+        }
+
+        @Override
+        public void onLevelChange(final ch.qos.logback.classic.Logger logger,
+            final ch.qos.logback.classic.Level level)
+        {
+            syncLevel();
+        }
+    }
 }
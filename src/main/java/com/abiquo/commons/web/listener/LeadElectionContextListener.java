@@ -6,27 +6,37 @@
  */
 package com.abiquo.commons.web.listener;
 
-import static java.lang.Integer.valueOf;
+import static com.abiquo.commons.web.listener.CuratorClients.NODE_ID;
+import static com.abiquo.commons.web.listener.CuratorClients.ZK_SERVER;
 import static java.lang.System.getProperty;
+import static java.lang.System.nanoTime;
 import static java.lang.Thread.currentThread;
-import static org.apache.curator.framework.CuratorFrameworkFactory.newClient;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
 
+import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
 import org.apache.curator.framework.CuratorFramework;
-import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.leader.CancelLeadershipException;
 import org.apache.curator.framework.recipes.leader.LeaderSelector;
 import org.apache.curator.framework.recipes.leader.LeaderSelectorListener;
 import org.apache.curator.framework.recipes.leader.LeaderSelectorListenerAdapter;
-import org.apache.curator.retry.RetryNTimes;
+import org.apache.curator.framework.state.ConnectionState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.abiquo.commons.web.ClusterConstants;
+import com.abiquo.commons.web.StartupTimeline;
+import com.abiquo.commons.web.listener.ClusterMembership.View;
+import com.abiquo.commons.web.servlet.ClusterHealth;
 
 /**
  * Check for node distribution to directly use the {@link AMQPConsumersService} or delegate it to
@@ -36,38 +46,53 @@ public abstract class LeadElectionContextListener extends LeaderSelectorListener
     implements ServletContextListener
 
 {
-    /** Tune {@link CuratorFrameworkFactory}. Connection timeout */
-    private static final int ZK_CONNECTION_TIMEOUT_MS =
-        valueOf(getProperty("abiquo.api.zk." + "connectionTimeoutMs", "15000")); // 1sec
+    protected static final Logger LOGGER =
+        LoggerFactory.getLogger(LeadElectionContextListener.class);
+
+    /** Name of the startup phase that calls {@link #initializeContext(ServletContextEvent)}. */
+    public static final String INITIALIZE_CONTEXT_PHASE = "initializeContext";
+
+    /** Name of the startup phase that prepares the {@link ElectionBackend}, if any. */
+    public static final String CONNECT_ELECTION_PHASE = "connectElection";
 
-    /** Tune {@link CuratorFrameworkFactory}. Num or retries on zk operation */
-    private static final int ZK_RETRIES =
-        valueOf(getProperty("abiquo.api.zk." + "connectionRetries", "10")); // 10times
+    /** Name of the startup phase that joins the leader election, if there is a backend. */
+    public static final String JOIN_ELECTION_PHASE = "joinElection";
+
+    /** Name of the startup phase that calls {@link #onStart(ServletContextEvent)}. */
+    public static final String ON_START_PHASE = "onStart";
+
+    /** Maximum number of startup phases to run concurrently. */
+    private static final int STARTUP_PARALLELISM =
+        Integer.getInteger("abiquo.startup.parallelism", 4);
 
     /**
-     * Connection to ZooKeeper server. Property not set indicate non-distributed API
-     * {@link LeadElectionContextListener#isDistributed()}.
+     * Election backend: <code>zookeeper</code>, <code>file</code> or <code>none</code>. Defaults to
+     * <code>zookeeper</code> if the zookeeper connection is configured, or <code>none</code>.
      */
-    private final static String ZK_SERVER = getProperty(ClusterConstants.ZK_SERVER); // localhost:2181
+    private static final String ELECTION_BACKEND = getProperty("abiquo.election.backend");
 
-    /** Tune {@link CuratorFrameworkFactory}. Session timeout */
-    private static final int ZK_SESSION_TIMEOUT_MS =
-        valueOf(getProperty("abiquo.api.zk." + "sessionTimeoutMs", "15000")); // 15sec
+    /**
+     * Directory of the lock files of the <code>file</code> backend, required by it. There is no
+     * default: it must be shared by the Tomcat instances of the host, which rules out their
+     * <code>java.io.tmpdir</code>, and it must not be writable by other users, which rules out
+     * <code>/tmp</code>.
+     */
+    private static final String ELECTION_LOCK_DIR = getProperty("abiquo.election.lockDir");
 
-    /** Tune {@link CuratorFrameworkFactory}. Ms to sleep between retries. */
-    private static final int ZK_SLEEP_MS_BETWEEN_RETRIES =
-        valueOf(getProperty("abiquo.api.zk." + "sleepMsBetweenRetries", "5000")); // 1sec
+    /**
+     * Whether the nodes share their check status through zookeeper, so any of them can serve the
+     * health of the whole cluster. See {@link ZookeeperClusterHealth}.
+     */
+    private static final boolean CLUSTER_HEALTH =
+        Boolean.parseBoolean(getProperty("abiquo.api.zk.clusterHealth", "true"));
 
-    protected static final Logger LOGGER =
-        LoggerFactory.getLogger(LeadElectionContextListener.class);
+    /** What the leader does when the connection is suspended. See {@link ConnectionLossPolicy}. */
+    private static final ConnectionLossPolicy CONNECTION_LOSS_POLICY = connectionLossPolicy();
 
-    /** Check node configuration to know if participates in a cluster. */
-    private final static boolean isDistributed()
-    {
-        return ZK_SERVER != null;
-    }
+    /** Backend electing the leader, or null if this node is always the leader. */
+    private ElectionBackend election;
 
-    /** Zk-client connected to the cluster using the ZK_SERVER connection. */
+    /** Shared Zk-client connected to the cluster using the zookeeper connection. */
     private CuratorFramework curatorClient;
 
     /**
@@ -75,6 +100,39 @@ public abstract class LeadElectionContextListener extends LeaderSelectorListener
      */
     protected LeaderSelector leaderSelector;
 
+    /** Cached view of the participants in the {@link #leaderSelector}. */
+    private ClusterMembership membership;
+
+    /** Check status of the nodes, if shared by this listener. */
+    private ZookeeperClusterHealth clusterHealth;
+
+    private ServletContext servletContext;
+
+    /** Failover timings of this node. */
+    private final LeadershipStats leadershipStats = new LeadershipStats();
+
+    /** The {@link System#nanoTime()} when this node last lost the leadership, or 0 if never. */
+    private volatile long leadershipLostAt;
+
+    /** Session in which this node holds the leadership, or 0 if it is not the leader. */
+    private volatile long leaderSessionId;
+
+    /** Whether the leader work is paused while the connection is suspended. */
+    private volatile boolean paused;
+
+    /**
+     * Leadership state, packed as <code>epoch &lt;&lt; 1 | leader</code> so both values can be read
+     * with a single volatile read. Only modified from synchronized methods.
+     */
+    private volatile long leadership;
+
+    /**
+     * Executors whose tasks are cancelled when the leadership is relinquished, by the executor
+     * they wrap.
+     */
+    private final ConcurrentMap<ScheduledExecutorService, LeadershipGatedExecutor> gatedExecutors =
+        new ConcurrentHashMap<>();
+
     /**
      * Called when the application starts.
      * <p>
@@ -84,7 +142,8 @@ public abstract class LeadElectionContextListener extends LeaderSelectorListener
     public abstract void initializeContext(ServletContextEvent sce);
 
     /**
-     * Called in non-distributed environments when the node starts.
+     * Called in non-distributed environments when the node starts, if there is no
+     * {@link ElectionBackend}.
      * <p>
      * Use this method to start services in non-distributed environments.
      */
@@ -100,7 +159,8 @@ public abstract class LeadElectionContextListener extends LeaderSelectorListener
     public abstract void onShutdown(ServletContextEvent sce);
 
     /**
-     * In a distributed environment, this method is invoked when the node gains the leadership.
+     * In a distributed environment, or with a local {@link ElectionBackend}, this method is
+     * invoked when the node gains the leadership.
      * <p>
      * Use this method to start the services after the node has taken the leadership.
      * 
@@ -109,12 +169,188 @@ public abstract class LeadElectionContextListener extends LeaderSelectorListener
     public abstract void onLeadershipTaken() throws Exception;
 
     /**
-     * In a distributed environment, this method is invoked when the node loses the leadership.
+     * In a distributed environment, or with a local {@link ElectionBackend}, this method is
+     * invoked when the node loses the leadership.
      * <p>
      * Use this method to stop the services after the node has lost the leadership.
      */
     public abstract void onLeadershipSuspended();
 
+    /**
+     * In a distributed environment with the {@link ConnectionLossPolicy#PAUSE} policy, this method
+     * is invoked when the connection of the leader is suspended.
+     * <p>
+     * Subclasses using that policy must override this method to stop doing leader work until
+     * {@link #onLeadershipResumed()} or {@link #onLeadershipSuspended()} is invoked, since another
+     * node may be elected if the session expires.
+     */
+    protected void onLeadershipPaused()
+    {
+    }
+
+    /**
+     * In a distributed environment with the {@link ConnectionLossPolicy#PAUSE} policy, this method
+     * is invoked when the connection of the leader is recovered with the same session, so it is
+     * still the leader.
+     */
+    protected void onLeadershipResumed()
+    {
+    }
+
+    /**
+     * Adds the startup phases of the subclass, such as warming caches or loading key material.
+     * <p>
+     * Phases without dependencies run concurrently with the connection to the zookeeper cluster
+     * and {@link #initializeContext(ServletContextEvent)}. Phases that must complete before the
+     * node can be elected must be declared as dependencies of {@link #JOIN_ELECTION_PHASE} or
+     * {@link #ON_START_PHASE} phases, which already depend on {@link #INITIALIZE_CONTEXT_PHASE}.
+     */
+    protected void configureStartup(final StartupOrchestrator startup,
+        final ServletContextEvent sce)
+    {
+    }
+
+    /**
+     * Return the connection to the zookeeper cluster, or null in non-distributed environments.
+     * Defaults to the {@link com.abiquo.commons.web.ClusterConstants#ZK_SERVER} property.
+     */
+    protected String getZookeeperConnection()
+    {
+        return ZK_SERVER;
+    }
+
+    /**
+     * Return the backend that elects the leader, or null if this node is always the leader and
+     * {@link #onStart(ServletContextEvent)} must be called instead. Defaults to the
+     * <code>abiquo.election.backend</code> property: <code>zookeeper</code> uses the
+     * {@link #getZookeeperConnection()}, and <code>file</code> elects the leader among the nodes
+     * of this host with a lock file named after the context path, in the directory of the
+     * <code>abiquo.election.lockDir</code> property.
+     */
+    protected ElectionBackend createElectionBackend(final ServletContextEvent sce)
+    {
+        String backend = ELECTION_BACKEND;
+        if (backend == null)
+        {
+            backend = getZookeeperConnection() != null ? "zookeeper" : "none";
+        }
+
+        switch (backend)
+        {
+            case "zookeeper":
+                return new CuratorElectionBackend(this);
+            case "file":
+                if (ELECTION_LOCK_DIR == null)
+                {
+                    throw new IllegalStateException(
+                        "The file election backend requires the abiquo.election.lockDir property");
+                }
+                String contextPath = sce.getServletContext().getContextPath();
+                String name =
+                    contextPath.isEmpty() ? "ROOT" : contextPath.substring(1).replace('/', '#');
+                return new FileLockElectionBackend(this,
+                    Paths.get(ELECTION_LOCK_DIR, "abiquo-" + name + "-leader.lock"));
+            case "none":
+                return null;
+            default:
+                throw new IllegalArgumentException("Unknown election backend " + backend);
+        }
+    }
+
+    /**
+     * Return a started client for the given connection. Defaults to the client shared by all the
+     * listeners. Override it, along with {@link #releaseCuratorClient(CuratorFramework)}, to use a
+     * dedicated client, for instance to give each listener its own session in failover tests.
+     */
+    protected CuratorFramework acquireCuratorClient(final String connection)
+    {
+        return CuratorClients.acquire(connection);
+    }
+
+    /** Releases the client returned by {@link #acquireCuratorClient(String)}. */
+    protected void releaseCuratorClient(final CuratorFramework client)
+    {
+        CuratorClients.release(client);
+    }
+
+    /**
+     * Return the id of this node in the election. It must be unique in the cluster. Defaults to
+     * {@link CuratorClients#NODE_ID}.
+     */
+    protected String getNodeId()
+    {
+        return NODE_ID;
+    }
+
+    /**
+     * Return the policy to apply when the connection of the leader is suspended. Defaults to the
+     * <code>abiquo.api.zk.connectionLossPolicy</code> property.
+     */
+    protected ConnectionLossPolicy getConnectionLossPolicy()
+    {
+        return CONNECTION_LOSS_POLICY;
+    }
+
+    /**
+     * Return whether this node is currently the leader and its work is not paused. In
+     * non-distributed environments the node is always the leader once started. This method does
+     * not block and is cheap enough to be called on every job execution.
+     */
+    public boolean isLeader()
+    {
+        return (leadership & 1) != 0;
+    }
+
+    /**
+     * Return whether this node is currently the leader in the given epoch. Use it to discard work
+     * started in a previous leadership.
+     */
+    public boolean isLeader(final long epoch)
+    {
+        return leadership == (epoch << 1 | 1);
+    }
+
+    /**
+     * Return the current leadership epoch of this node. It is incremented every time the node
+     * takes the leadership, and it is not modified when the node loses it.
+     */
+    public long getLeadershipEpoch()
+    {
+        return leadership >>> 1;
+    }
+
+    /**
+     * Return an executor that only runs the tasks while this node is the leader, and cancels them
+     * when the leadership is relinquished. There is one per wrapped executor, so calling it again,
+     * such as on each {@link #onLeadershipTaken()}, returns the same one until it is closed.
+     */
+    public LeadershipGatedExecutor newGatedExecutor(final ScheduledExecutorService delegate)
+    {
+        return gatedExecutors.computeIfAbsent(delegate,
+            executor -> new LeadershipGatedExecutor(executor, this));
+    }
+
+    /** Stops cancelling the tasks of the given executor, once it is closed. */
+    void removeGatedExecutor(final LeadershipGatedExecutor executor)
+    {
+        gatedExecutors.remove(executor.getDelegate(), executor);
+    }
+
+    /**
+     * Return the locally cached view of the cluster members and the current leader, or null in
+     * non-distributed environments. Participants are identified by their {@link #getNodeId()}.
+     */
+    public ClusterMembership getMembership()
+    {
+        return membership;
+    }
+
+    /** Return the failover timings of this node. */
+    public LeadershipStats getLeadershipStats()
+    {
+        return leadershipStats;
+    }
+
     /**
      * Get the path for the node in Zookeeper.
      */
@@ -123,52 +359,119 @@ public abstract class LeadElectionContextListener extends LeaderSelectorListener
     @Override
     public void contextDestroyed(final ServletContextEvent sce)
     {
-        if (isDistributed())
+        if (election != null)
         {
-            stopZookeeper();
+            try (StartupTimeline.Phase phase = phase(sce, "leaveElection"))
+            {
+                election.leave();
+            }
+            election = null;
         }
 
-        onShutdown(sce);
+        releaseLeadership();
+        try (StartupTimeline.Phase phase = phase(sce, "onShutdown"))
+        {
+            onShutdown(sce);
+        }
     }
 
     @Override
     public void contextInitialized(final ServletContextEvent sce)
     {
-        zookeeperNodePath = sce.getServletContext().getContextPath() + "/leader-election";
+        servletContext = sce.getServletContext();
+        zookeeperNodePath = servletContext.getContextPath() + "/leader-election";
 
-        initializeContext(sce);
+        StartupOrchestrator startup = new StartupOrchestrator(sce.getServletContext(),
+            getClass().getSimpleName(), STARTUP_PARALLELISM);
+        startup.phase(INITIALIZE_CONTEXT_PHASE, () -> initializeContext(sce));
 
-        if (isDistributed())
+        election = createElectionBackend(sce);
+        if (election != null)
         {
-            try
-            {
-                startZookeeper();
-            }
-            catch (Exception e)
+            // Connect while the context is being initialized
+            startup.phase(CONNECT_ELECTION_PHASE, election::connect);
+            startup.phase(JOIN_ELECTION_PHASE, election::join, INITIALIZE_CONTEXT_PHASE,
+                CONNECT_ELECTION_PHASE);
+        }
+        else
+        {
+            startup.phase(ON_START_PHASE, () -> {
+                acquireLeadership();
+                onStart(sce);
+            }, INITIALIZE_CONTEXT_PHASE);
+        }
+
+        configureStartup(startup, sce);
+
+        try
+        {
+            startup.run();
+        }
+        catch (RuntimeException e)
+        {
+            if (election != null)
             {
-                String error =
-                    "Cannot start, zookeeper configuration enabled but not connection to zk server at "
-                        + ZK_SERVER;
-                LOGGER.error(error, e);
-                throw new RuntimeException(error, e);
+                election.leave();
+                election = null;
             }
+            throw e;
         }
-        else
+    }
+
+    /** Connects to the zookeeper cluster, while the context is being initialized. */
+    void connectZookeeper()
+    {
+        curatorClient = acquireCuratorClient(getZookeeperConnection());
+    }
+
+    void startZookeeperOrFail()
+    {
+        try
+        {
+            startZookeeper();
+        }
+        catch (Exception e)
         {
-            onStart(sce);
+            String error =
+                "Cannot start, zookeeper configuration enabled but not connection to zk server at "
+                    + getZookeeperConnection();
+            LOGGER.error(error, e);
+            throw new RuntimeException(error, e);
         }
     }
 
+    /** Starts timing a phase of this listener in the {@link StartupTimeline}. */
+    private StartupTimeline.Phase phase(final ServletContextEvent sce, final String name)
+    {
+        return StartupTimeline.get(sce.getServletContext())
+            .phase(getClass().getSimpleName() + "." + name);
+    }
+
     /**
      * /!\ NOTE : This method should only return when leadership is being relinquished.
      */
     @Override
     public void takeLeadership(final CuratorFramework client) throws Exception
     {
+        leaderSessionId = client.getZookeeperClient().getZooKeeper().getSessionId();
+        lead();
+    }
+
+    /**
+     * Called by the {@link ElectionBackend} when this node is elected. It takes the leadership
+     * and blocks until the calling thread is interrupted, then it relinquishes the leadership.
+     *
+     * @throws Exception if {@link #onLeadershipTaken()} fails, once the leadership is relinquished.
+     */
+    public void lead() throws Exception
+    {
+        long electedAt = nanoTime();
+
         Exception failedToTake = null;
         try
         {
             LOGGER.info("Taking leadership on {} ...", zookeeperNodePath);
+            acquireLeadership();
             onLeadershipTaken();
         }
         catch (Exception e)
@@ -179,9 +482,14 @@ public abstract class LeadElectionContextListener extends LeaderSelectorListener
 
         if (failedToTake == null)
         {
+            long takenAt = nanoTime();
+            long latencyMs = NANOSECONDS.toMillis(takenAt - electedAt);
+            leadershipStats.leadershipTaken(latencyMs,
+                NANOSECONDS.toMillis(takenAt - leaderlessSince(electedAt)));
+
             try
             {
-                LOGGER.info("Leader on {}", zookeeperNodePath);
+                LOGGER.info("Leader on {} (took {}ms)", zookeeperNodePath, latencyMs);
                 currentThread().join();
             }
             catch (InterruptedException e)
@@ -192,6 +500,12 @@ public abstract class LeadElectionContextListener extends LeaderSelectorListener
             LOGGER.info("Current node no longer the {} leader", zookeeperNodePath);
         }
 
+        leaderSessionId = 0;
+        paused = false;
+        releaseLeadership();
+        leadershipLostAt = nanoTime();
+        leadershipStats.leadershipLost();
+
         try
         {
             onLeadershipSuspended();
@@ -207,20 +521,173 @@ public abstract class LeadElectionContextListener extends LeaderSelectorListener
         }
     }
 
+    /**
+     * Relinquishes the leadership when the connection is suspended or lost, unless the
+     * {@link ConnectionLossPolicy#PAUSE} policy is configured, in which case the leader only
+     * relinquishes if the connection is lost or recovered with a different session.
+     */
+    @Override
+    public void stateChanged(final CuratorFramework client, final ConnectionState newState)
+    {
+        LOGGER.debug("Connection to {} {}", getZookeeperConnection(), newState);
+
+        switch (newState)
+        {
+            case SUSPENDED:
+                leadershipStats.connectionSuspended();
+                if (leaderSessionId != 0 && getConnectionLossPolicy() == ConnectionLossPolicy.PAUSE)
+                {
+                    pause();
+                    return;
+                }
+                break;
+            case RECONNECTED:
+                if (paused)
+                {
+                    resume(client);
+                }
+                return;
+            case LOST:
+                break;
+            default:
+                return;
+        }
+
+        super.stateChanged(client, newState);
+    }
+
+    private void pause()
+    {
+        LOGGER.warn("Connection to {} suspended, pausing leadership on {}",
+            getZookeeperConnection(), zookeeperNodePath);
+        paused = true;
+        pauseLeadership();
+        try
+        {
+            onLeadershipPaused();
+        }
+        catch (Exception e)
+        {
+            LOGGER.warn("Fail to pause leadership on " + zookeeperNodePath, e);
+        }
+    }
+
+    private void resume(final CuratorFramework client)
+    {
+        paused = false;
+        leadershipStats.connectionResumed();
+
+        if (!isSameSession(client))
+        {
+            // The session expired, so the leader node is gone and other node may be leading
+            LOGGER.warn("Session expired while paused, relinquishing leadership on {}",
+                zookeeperNodePath);
+            throw new CancelLeadershipException();
+        }
+
+        LOGGER.info("Connection to {} recovered, resuming leadership on {} (paused {}ms)",
+            getZookeeperConnection(), zookeeperNodePath, leadershipStats.getLastPausedMs());
+        resumeLeadership();
+        try
+        {
+            onLeadershipResumed();
+        }
+        catch (Exception e)
+        {
+            LOGGER.error("Failed to resume leadership on " + zookeeperNodePath, e);
+            throw new CancelLeadershipException();
+        }
+    }
+
+    /**
+     * Return when the cluster was left without a leader, as seen by this node: the removal of the
+     * previous leader's election node in the {@link #membership} view if this node is the next in
+     * line, or the election of this node if the view has not been updated yet. A removal before
+     * this node last lost the leadership belongs to an earlier failover, so it is ignored.
+     */
+    private long leaderlessSince(final long electedAt)
+    {
+        ClusterMembership current = membership;
+        if (current == null)
+        {
+            return electedAt;
+        }
+
+        View view = current.getView();
+        long leaderLeftAt = view.getPreviousLeaderLeftAt();
+        long lostAt = leadershipLostAt;
+        boolean thisFailover = leaderLeftAt != 0 && leaderLeftAt - electedAt < 0
+            && (lostAt == 0 || leaderLeftAt - lostAt > 0);
+        return getNodeId().equals(view.getLeader()) && thisFailover ? leaderLeftAt : electedAt;
+    }
+
+    /** Starts a new leadership epoch. */
+    private synchronized void acquireLeadership()
+    {
+        leadership = (getLeadershipEpoch() + 1) << 1 | 1;
+    }
+
+    private synchronized void pauseLeadership()
+    {
+        leadership &= ~1L;
+    }
+
+    private synchronized void resumeLeadership()
+    {
+        leadership |= 1L;
+    }
+
+    /** Ends the current leadership epoch and cancels the tasks of the gated executors. */
+    private void releaseLeadership()
+    {
+        pauseLeadership();
+        for (LeadershipGatedExecutor executor : gatedExecutors.values())
+        {
+            executor.cancelAll();
+        }
+    }
+
+    private boolean isSameSession(final CuratorFramework client)
+    {
+        try
+        {
+            return client.getZookeeperClient().getZooKeeper().getSessionId() == leaderSessionId;
+        }
+        catch (Exception e)
+        {
+            LOGGER.warn("Cannot get the current zookeeper session", e);
+            return false;
+        }
+    }
+
     /** Connects to ZK-Server and adds as participant to {@link LeaderSelector} cluster. */
     protected void startZookeeper() throws Exception
     {
-        curatorClient = newClient(ZK_SERVER, ZK_SESSION_TIMEOUT_MS, ZK_CONNECTION_TIMEOUT_MS, //
-            new RetryNTimes(ZK_RETRIES, ZK_SLEEP_MS_BETWEEN_RETRIES));
-        curatorClient.start();
+        if (curatorClient == null)
+        {
+            curatorClient = acquireCuratorClient(getZookeeperConnection());
+        }
 
-        LOGGER.info("Connected to {}", ZK_SERVER);
+        LOGGER.info("Connected to {}", getZookeeperConnection());
 
         leaderSelector = new LeaderSelector(curatorClient, zookeeperNodePath, this);
         leaderSelector.autoRequeue();
-        leaderSelector.setId(getHostName());
+        leaderSelector.setId(getNodeId());
         leaderSelector.start();
 
+        membership = new ClusterMembership(curatorClient, zookeeperNodePath);
+        membership.start();
+
+        // Only one listener of the webapp shares the check status
+        if (CLUSTER_HEALTH && servletContext != null
+            && servletContext.getAttribute(ClusterHealth.ATTRIBUTE) == null)
+        {
+            clusterHealth = new ZookeeperClusterHealth(curatorClient,
+                servletContext.getContextPath() + "/health", getNodeId());
+            clusterHealth.start();
+            servletContext.setAttribute(ClusterHealth.ATTRIBUTE, clusterHealth);
+        }
+
         LOGGER.info("Participating in leader selector at {}", zookeeperNodePath);
     }
 
@@ -229,8 +696,33 @@ public abstract class LeadElectionContextListener extends LeaderSelectorListener
         LOGGER.debug("closing LeaderSelector ...");
         try
         {
-
-            leaderSelector.close();
+            if (clusterHealth != null)
+            {
+                servletContext.removeAttribute(ClusterHealth.ATTRIBUTE);
+                clusterHealth.close();
+            }
+        }
+        catch (Exception e)
+        {
+            LOGGER.warn("Cannot close cluster health", e);
+        }
+        try
+        {
+            if (membership != null)
+            {
+                membership.close();
+            }
+        }
+        catch (Exception e)
+        {
+            LOGGER.warn("Cannot close membership", e);
+        }
+        try
+        {
+            if (leaderSelector != null)
+            {
+                leaderSelector.close();
+            }
         }
         catch (Exception e)
         {
@@ -238,18 +730,36 @@ public abstract class LeadElectionContextListener extends LeaderSelectorListener
         }
         try
         {
-
-            curatorClient.close();
+            if (curatorClient != null)
+            {
+                releaseCuratorClient(curatorClient);
+            }
         }
         catch (Exception e)
         {
-            LOGGER.warn("Cannot close curatorClient", e);
+            LOGGER.warn("Cannot release curatorClient", e);
         }
 
+        clusterHealth = null;
+        membership = null;
         leaderSelector = null;
         curatorClient = null;
     }
 
+    private static ConnectionLossPolicy connectionLossPolicy()
+    {
+        String value = getProperty("abiquo.api.zk." + "connectionLossPolicy", "RELINQUISH");
+        try
+        {
+            return ConnectionLossPolicy.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e)
+        {
+            LOGGER.warn("Invalid connection loss policy '{}', using RELINQUISH", value);
+            return ConnectionLossPolicy.RELINQUISH;
+        }
+    }
+
     /**
      * Return the configure system *hostname*.
      * <p>
@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps a {@link ScheduledExecutorService} to run tasks only while the node is the leader.
+ * <p>
+ * Tasks can only be submitted while the node is the leader, and are bound to the leadership epoch
+ * in which they were submitted: they are skipped if they run when the node is no longer the leader
+ * of that epoch, and they are cancelled when the leadership is relinquished. Instances are created
+ * with {@link LeadElectionContextListener#newGatedExecutor(ScheduledExecutorService)}, one per
+ * wrapped executor, and stay registered in the listener until they are closed. The lifecycle of
+ * the wrapped executor is not managed.
+ */
+public class LeadershipGatedExecutor implements Closeable
+{
+    private final ScheduledExecutorService delegate;
+
+    private final LeadElectionContextListener election;
+
+    private final Set<Future<?>> futures = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean closed;
+
+    LeadershipGatedExecutor(final ScheduledExecutorService delegate,
+        final LeadElectionContextListener election)
+    {
+        this.delegate = delegate;
+        this.election = election;
+    }
+
+    public Future<?> submit(final Runnable task)
+    {
+        long epoch = currentEpoch();
+        OneShot oneShot = new OneShot();
+        return track(delegate.submit(gate(task, epoch, oneShot)), epoch, oneShot);
+    }
+
+    public <T> Future<T> submit(final Callable<T> task)
+    {
+        long epoch = currentEpoch();
+        OneShot oneShot = new OneShot();
+        return track(delegate.submit(() -> {
+            try
+            {
+                if (!election.isLeader(epoch))
+                {
+                    throw new RejectedExecutionException("Leadership epoch " + epoch + " is over");
+                }
+                return task.call();
+            }
+            finally
+            {
+                oneShot.ran();
+            }
+        }), epoch, oneShot);
+    }
+
+    public ScheduledFuture<?> schedule(final Runnable task, final long delay,
+        final TimeUnit unit)
+    {
+        long epoch = currentEpoch();
+        OneShot oneShot = new OneShot();
+        return track(delegate.schedule(gate(task, epoch, oneShot), delay, unit), epoch, oneShot);
+    }
+
+    public ScheduledFuture<?> scheduleAtFixedRate(final Runnable task, final long initialDelay,
+        final long period, final TimeUnit unit)
+    {
+        long epoch = currentEpoch();
+        return track(
+            delegate.scheduleAtFixedRate(gate(task, epoch, null), initialDelay, period, unit),
+            epoch, null);
+    }
+
+    public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable task,
+        final long initialDelay, final long delay, final TimeUnit unit)
+    {
+        long epoch = currentEpoch();
+        return track(
+            delegate.scheduleWithFixedDelay(gate(task, epoch, null), initialDelay, delay, unit),
+            epoch, null);
+    }
+
+    /**
+     * Cancels all the pending and periodic tasks, and unregisters this executor from the listener.
+     * No more tasks can be submitted.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        election.removeGatedExecutor(this);
+        cancelAll();
+    }
+
+    ScheduledExecutorService getDelegate()
+    {
+        return delegate;
+    }
+
+    /** Cancels all the pending and periodic tasks. Invoked when the leadership is relinquished. */
+    void cancelAll()
+    {
+        for (Future<?> future : futures)
+        {
+            future.cancel(true);
+        }
+        futures.clear();
+    }
+
+    private Runnable gate(final Runnable task, final long epoch, final OneShot oneShot)
+    {
+        return () -> {
+            try
+            {
+                // Skipped while paused, or if the leadership of the epoch is over
+                if (election.isLeader(epoch))
+                {
+                    task.run();
+                }
+            }
+            finally
+            {
+                if (oneShot != null)
+                {
+                    oneShot.ran();
+                }
+            }
+        };
+    }
+
+    private long currentEpoch()
+    {
+        if (closed)
+        {
+            throw new RejectedExecutionException("Leadership gated executor is closed");
+        }
+        long epoch = election.getLeadershipEpoch();
+        if (!election.isLeader(epoch))
+        {
+            throw new RejectedExecutionException("Current node is not the leader");
+        }
+        return epoch;
+    }
+
+    private <F extends Future<?>> F track(final F future, final long epoch,
+        final OneShot oneShot)
+    {
+        futures.add(future);
+        if (oneShot != null)
+        {
+            oneShot.tracked(future);
+        }
+
+        // The leadership may have been relinquished, or the executor closed, and the tasks
+        // cancelled since the epoch was checked
+        if (closed || !election.isLeader(epoch))
+        {
+            future.cancel(true);
+            futures.remove(future);
+        }
+        return future;
+    }
+
+    /**
+     * Stops tracking a one-shot task once it has run. The task may run before its future is
+     * tracked, so whichever happens last removes it.
+     */
+    private final class OneShot
+    {
+        private volatile boolean ran;
+
+        private volatile Future<?> future;
+
+        void ran()
+        {
+            ran = true;
+            Future<?> tracked = future;
+            if (tracked != null)
+            {
+                futures.remove(tracked);
+            }
+        }
+
+        void tracked(final Future<?> future)
+        {
+            this.future = future;
+            if (ran)
+            {
+                futures.remove(future);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import static java.lang.System.currentTimeMillis;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Failover timings of a {@link LeadElectionContextListener}.
+ * <p>
+ * Timestamps are wall-clock milliseconds so the values of different nodes can be compared. The time
+ * the cluster has been without a leader is also measured locally by each new leader, from the
+ * removal of the previous leader in its {@link ClusterMembership} view, so it does not depend on
+ * the clocks being synchronized.
+ */
+public final class LeadershipStats
+{
+    private final AtomicLong elections = new AtomicLong();
+
+    private final AtomicLong suspensions = new AtomicLong();
+
+    private volatile long lastTakenAt;
+
+    private volatile long lastLostAt;
+
+    private volatile long lastTakeLatencyMs;
+
+    private volatile long lastLeaderlessMs;
+
+    private volatile long maxLeaderlessMs;
+
+    private volatile long lastSuspendedAt;
+
+    private volatile long lastPausedMs;
+
+    void leadershipTaken(final long latencyMs, final long leaderlessMs)
+    {
+        elections.incrementAndGet();
+        lastTakeLatencyMs = latencyMs;
+        lastLeaderlessMs = leaderlessMs;
+        maxLeaderlessMs = Math.max(maxLeaderlessMs, leaderlessMs);
+        lastTakenAt = currentTimeMillis();
+    }
+
+    void leadershipLost()
+    {
+        lastLostAt = currentTimeMillis();
+    }
+
+    void connectionSuspended()
+    {
+        suspensions.incrementAndGet();
+        lastSuspendedAt = currentTimeMillis();
+    }
+
+    void connectionResumed()
+    {
+        lastPausedMs = currentTimeMillis() - lastSuspendedAt;
+    }
+
+    /** Number of times this node has been elected leader. */
+    public long getElections()
+    {
+        return elections.get();
+    }
+
+    /** Number of times the connection has been suspended. */
+    public long getSuspensions()
+    {
+        return suspensions.get();
+    }
+
+    /** When this node was last elected leader, or 0 if never. */
+    public long getLastTakenAt()
+    {
+        return lastTakenAt;
+    }
+
+    /** When this node last stopped being the leader, or 0 if never. */
+    public long getLastLostAt()
+    {
+        return lastLostAt;
+    }
+
+    /** Time between the election and the end of the last <code>onLeadershipTaken</code>. */
+    public long getLastTakeLatencyMs()
+    {
+        return lastTakeLatencyMs;
+    }
+
+    /**
+     * Time the cluster was without a leader before this node last took the leadership, as seen by
+     * this node. It is at least the {@link #getLastTakeLatencyMs()}.
+     */
+    public long getLastLeaderlessMs()
+    {
+        return lastLeaderlessMs;
+    }
+
+    /** Maximum {@link #getLastLeaderlessMs()} since the start. */
+    public long getMaxLeaderlessMs()
+    {
+        return maxLeaderlessMs;
+    }
+
+    /** When the connection was last suspended, or 0 if never. */
+    public long getLastSuspendedAt()
+    {
+        return lastSuspendedAt;
+    }
+
+    /** Time the leader work was last paused while the connection was suspended. */
+    public long getLastPausedMs()
+    {
+        return lastPausedMs;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "elections=" + getElections() + ", suspensions=" + getSuspensions()
+            + ", lastTakenAt=" + lastTakenAt + ", lastLostAt=" + lastLostAt
+            + ", lastTakeLatencyMs=" + lastTakeLatencyMs + ", lastLeaderlessMs=" + lastLeaderlessMs
+            + ", maxLeaderlessMs=" + maxLeaderlessMs + ", lastPausedMs=" + lastPausedMs;
+    }
+}
@@ -0,0 +1,342 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import static com.abiquo.commons.web.listener.CuratorClients.NODE_ID;
+import static com.abiquo.commons.web.listener.CuratorClients.ZK_SERVER;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache.StartMode;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.nodes.PersistentNode;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.abiquo.commons.web.StartupTimeline;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * Splits the background work of the cluster in a set of named partitions and distributes them
+ * among the live nodes, instead of running everything in a single leader.
+ * <p>
+ * Each node registers an ephemeral member node and watches the group membership. Partitions are
+ * assigned with a consistent hash ring, so when a node joins or leaves only the partitions it takes
+ * or releases are moved. In non-distributed environments the node owns all the partitions.
+ * <p>
+ * Assignment is eventually consistent: during a rebalance a partition may be briefly owned by its
+ * old and new owners. Work that cannot tolerate that must be made idempotent.
+ */
+public abstract class PartitionedContextListener implements ServletContextListener
+{
+    protected static final Logger LOGGER =
+        LoggerFactory.getLogger(PartitionedContextListener.class);
+
+    /** Shared Zk-client connected to the cluster using the zookeeper connection. */
+    private CuratorFramework curatorClient;
+
+    /** Ephemeral node that advertises this node as a live member. */
+    private PersistentNode memberNode;
+
+    /** Watch-driven view of the live members. */
+    private PathChildrenCache membersCache;
+
+    /** Get the path for the group members in Zookeeper. */
+    private String membersPath;
+
+    private Set<String> partitions;
+
+    /** Partitions currently owned by this node. Only modified by {@link #assign(Set)}. */
+    private Set<String> owned = Collections.emptySet();
+
+    /**
+     * Called when the application starts.
+     * <p>
+     * Use this method to perform initialization tasks, such as getting beans from the Spring
+     * context, and initializing class members.
+     */
+    public abstract void initializeContext(ServletContextEvent sce);
+
+    /**
+     * Called when the node is going to shut down, after all its partitions have been revoked.
+     * <p>
+     * Use this method to shutdown all services and release the resources.
+     */
+    public abstract void onShutdown(ServletContextEvent sce);
+
+    /**
+     * Return the names of all the partitions the work is split into. It is called once, after
+     * {@link #initializeContext(ServletContextEvent)}, and must return the same set in all nodes.
+     */
+    public abstract Set<String> getPartitions();
+
+    /**
+     * Invoked when this node becomes the owner of the given partitions.
+     * <p>
+     * Use this method to start the work of the partitions. It is invoked from the membership
+     * watcher thread, so it should not block.
+     */
+    public abstract void onPartitionsAssigned(Set<String> assigned);
+
+    /**
+     * Invoked when this node is no longer the owner of the given partitions, because the group
+     * has been rebalanced, the connection to the cluster has been lost or the node is shutting
+     * down.
+     * <p>
+     * Use this method to stop the work of the partitions.
+     */
+    public abstract void onPartitionsRevoked(Set<String> revoked);
+
+    /**
+     * Return the connection to the zookeeper cluster, or null in non-distributed environments.
+     * Defaults to the {@link com.abiquo.commons.web.ClusterConstants#ZK_SERVER} property.
+     */
+    protected String getZookeeperConnection()
+    {
+        return ZK_SERVER;
+    }
+
+    /**
+     * Return a started client for the given connection. Defaults to the client shared by all the
+     * listeners. Override it, along with {@link #releaseCuratorClient(CuratorFramework)}, to use a
+     * dedicated client, for instance to give each listener its own session in tests.
+     */
+    protected CuratorFramework acquireCuratorClient(final String connection)
+    {
+        return CuratorClients.acquire(connection);
+    }
+
+    /** Releases the client returned by {@link #acquireCuratorClient(String)}. */
+    protected void releaseCuratorClient(final CuratorFramework client)
+    {
+        CuratorClients.release(client);
+    }
+
+    /**
+     * Return the id of this node in the group. It must be unique in the cluster and a valid
+     * zookeeper node name. Defaults to {@link CuratorClients#NODE_ID}.
+     */
+    protected String getNodeId()
+    {
+        return NODE_ID;
+    }
+
+    /** Return the partitions currently owned by this node. */
+    public synchronized Set<String> getOwnedPartitions()
+    {
+        return owned;
+    }
+
+    @Override
+    public void contextInitialized(final ServletContextEvent sce)
+    {
+        membersPath = sce.getServletContext().getContextPath() + "/partitions/members";
+
+        try (StartupTimeline.Phase phase = phase(sce, "initializeContext"))
+        {
+            initializeContext(sce);
+        }
+
+        partitions = ImmutableSet.copyOf(getPartitions());
+
+        if (isDistributed())
+        {
+            try (StartupTimeline.Phase phase = phase(sce, "startZookeeper"))
+            {
+                startZookeeper();
+            }
+            catch (Exception e)
+            {
+                String error = "Cannot start, zookeeper configuration enabled but not "
+                    + "connection to zk server at " + getZookeeperConnection();
+                LOGGER.error(error, e);
+                throw new RuntimeException(error, e);
+            }
+        }
+        else
+        {
+            assign(partitions);
+        }
+    }
+
+    @Override
+    public void contextDestroyed(final ServletContextEvent sce)
+    {
+        if (isDistributed())
+        {
+            try (StartupTimeline.Phase phase = phase(sce, "stopZookeeper"))
+            {
+                stopZookeeper();
+            }
+        }
+
+        assign(Collections.<String> emptySet());
+
+        try (StartupTimeline.Phase phase = phase(sce, "onShutdown"))
+        {
+            onShutdown(sce);
+        }
+    }
+
+    /** Check node configuration to know if participates in a cluster. */
+    private boolean isDistributed()
+    {
+        return getZookeeperConnection() != null;
+    }
+
+    /** Starts timing a phase of this listener in the {@link StartupTimeline}. */
+    private StartupTimeline.Phase phase(final ServletContextEvent sce, final String name)
+    {
+        return StartupTimeline.get(sce.getServletContext())
+            .phase(getClass().getSimpleName() + "." + name);
+    }
+
+    /** Connects to ZK-Server, joins the group and starts watching its members. */
+    protected void startZookeeper() throws Exception
+    {
+        curatorClient = acquireCuratorClient(getZookeeperConnection());
+
+        LOGGER.info("Connected to {}", getZookeeperConnection());
+
+        membersCache = new PathChildrenCache(curatorClient, membersPath, false);
+        membersCache.getListenable().addListener((client, event) -> membersChanged(event));
+        membersCache.start(StartMode.POST_INITIALIZED_EVENT);
+
+        String nodeId = getNodeId();
+        memberNode = new PersistentNode(curatorClient, CreateMode.EPHEMERAL, false,
+            ZKPaths.makePath(membersPath, nodeId), nodeId.getBytes(UTF_8));
+        memberNode.start();
+
+        LOGGER.info("Participating as {} in partition group at {}", nodeId, membersPath);
+    }
+
+    protected void stopZookeeper()
+    {
+        LOGGER.debug("closing partition group membership ...");
+        try
+        {
+            memberNode.close();
+        }
+        catch (Exception e)
+        {
+            LOGGER.warn("Cannot close member node", e);
+        }
+        try
+        {
+            membersCache.close();
+        }
+        catch (Exception e)
+        {
+            LOGGER.warn("Cannot close members cache", e);
+        }
+        try
+        {
+            releaseCuratorClient(curatorClient);
+        }
+        catch (Exception e)
+        {
+            LOGGER.warn("Cannot release curatorClient", e);
+        }
+
+        memberNode = null;
+        membersCache = null;
+        curatorClient = null;
+    }
+
+    /** Invoked from the cache thread, so rebalances are never processed concurrently. */
+    private void membersChanged(final PathChildrenCacheEvent event)
+    {
+        switch (event.getType())
+        {
+            case CONNECTION_SUSPENDED:
+            case CONNECTION_LOST:
+                // The session may expire and other nodes take over our partitions
+                LOGGER.warn("Connection to {} {}, revoking all partitions",
+                    getZookeeperConnection(), event.getType());
+                assign(Collections.<String> emptySet());
+                break;
+            case INITIALIZED:
+            case CHILD_ADDED:
+            case CHILD_REMOVED:
+            case CONNECTION_RECONNECTED:
+                rebalance();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void rebalance()
+    {
+        PathChildrenCache cache = membersCache;
+        if (cache == null)
+        {
+            return;
+        }
+
+        Set<String> members = new HashSet<>();
+        for (ChildData child : cache.getCurrentData())
+        {
+            members.add(ZKPaths.getNodeFromPath(child.getPath()));
+        }
+
+        // Do not claim anything until the rest of the group can see this node
+        String nodeId = getNodeId();
+        Set<String> target = members.contains(nodeId)
+            ? new ConsistentHashRing(members).partitionsOf(nodeId, partitions)
+            : Collections.<String> emptySet();
+
+        LOGGER.debug("Rebalancing {} partitions among members {}", partitions.size(), members);
+        assign(target);
+    }
+
+    /** Moves the ownership of this node to the target partitions, revoking before assigning. */
+    private synchronized void assign(final Set<String> target)
+    {
+        Set<String> revoked = ImmutableSet.copyOf(Sets.difference(owned, target));
+        Set<String> assigned = ImmutableSet.copyOf(Sets.difference(target, owned));
+        owned = ImmutableSet.copyOf(target);
+
+        if (!revoked.isEmpty())
+        {
+            LOGGER.info("Partitions revoked on {}: {}", membersPath, revoked);
+            try
+            {
+                onPartitionsRevoked(revoked);
+            }
+            catch (Exception e)
+            {
+                LOGGER.warn("Fail to cleanup onPartitionsRevoked on " + membersPath, e);
+            }
+        }
+
+        if (!assigned.isEmpty())
+        {
+            LOGGER.info("Partitions assigned on {}: {}", membersPath, assigned);
+            try
+            {
+                onPartitionsAssigned(assigned);
+            }
+            catch (Exception e)
+            {
+                LOGGER.error("Failed to start assigned partitions on " + membersPath, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.servlet.ServletContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.abiquo.commons.web.StartupTimeline;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the startup phases of a webapp in a bounded pool, running concurrently the phases that do
+ * not depend on each other.
+ * <p>
+ * Each phase declares the phases it depends on, and starts when all of them have finished. If a
+ * phase fails, the phases that have not started yet are cancelled, the running ones are
+ * interrupted and, once they have finished, the failure is thrown from {@link #run()}. Phases
+ * run with the context class loader of the thread that created the orchestrator, and are
+ * recorded in the {@link StartupTimeline} of the webapp.
+ * <p>
+ * When no phase can overlap another, because each one depends on the previous one, the phases run
+ * in the calling thread instead, and their failures are thrown as they are.
+ */
+public class StartupOrchestrator
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(StartupOrchestrator.class);
+
+    /** Maximum time to wait for the interrupted phases to finish when a phase fails. */
+    private static final long TERMINATION_TIMEOUT_MS =
+        Long.getLong("abiquo.startup.terminationTimeoutMs", 10000);
+
+    /** A startup phase. */
+    @FunctionalInterface
+    public interface Task
+    {
+        void run() throws Exception;
+    }
+
+    private final ServletContext servletContext;
+
+    private final String name;
+
+    private final int parallelism;
+
+    private final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+
+    /**
+     * @param name prefix of the phases in the {@link StartupTimeline}.
+     * @param parallelism maximum number of phases to run concurrently.
+     */
+    public StartupOrchestrator(final ServletContext servletContext, final String name,
+        final int parallelism)
+    {
+        if (parallelism < 1)
+        {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.servletContext = servletContext;
+        this.name = name;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Adds a phase that will run after the given ones.
+     *
+     * @throws IllegalArgumentException if there is already a phase with the same name.
+     */
+    public StartupOrchestrator phase(final String name, final Task task,
+        final String... dependsOn)
+    {
+        if (phases.containsKey(name))
+        {
+            throw new IllegalArgumentException(format("Duplicate startup phase '%s'", name));
+        }
+        phases.put(name, new Phase(name, task, Arrays.asList(dependsOn)));
+        return this;
+    }
+
+    /** Return whether a phase with the given name has been added. */
+    public boolean hasPhase(final String name)
+    {
+        return phases.containsKey(name);
+    }
+
+    /**
+     * Runs all the phases and waits for them to finish.
+     *
+     * @throws IllegalStateException if a phase depends on an unknown phase or there is a cycle.
+     * @throws RuntimeException with the cause of the first phase that failed.
+     */
+    public void run()
+    {
+        List<Phase> sorted = sort();
+        if (sorted.isEmpty())
+        {
+            return;
+        }
+        if (parallelism == 1 || isSequential(sorted))
+        {
+            sorted.forEach(this::executeInline);
+            return;
+        }
+
+        ExecutorService pool = Executors
+            .newFixedThreadPool(Math.min(parallelism, sorted.size()), threadFactory());
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+
+        try
+        {
+            for (Phase phase : sorted)
+            {
+                CompletableFuture<?>[] dependencies = phase.dependsOn.stream()
+                    .map(futures::get).toArray(CompletableFuture[]::new);
+
+                CompletableFuture<Void> future = CompletableFuture.allOf(dependencies)
+                    .thenRunAsync(() -> execute(phase), pool);
+                future.whenComplete((result, ex) -> {
+                    if (ex != null)
+                    {
+                        failed.completeExceptionally(ex);
+                    }
+                });
+                futures.put(phase.name, future);
+            }
+
+            CompletableFuture<Void> all =
+                CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0]));
+            CompletableFuture.anyOf(all, failed).join();
+        }
+        catch (CompletionException ex)
+        {
+            // Fail fast: do not start pending phases and interrupt the running ones
+            futures.values().forEach(future -> future.cancel(true));
+            pool.shutdownNow();
+            awaitTermination(pool);
+
+            Throwable cause = ex.getCause() instanceof CompletionException
+                ? ex.getCause().getCause() : ex.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause
+                : new RuntimeException(cause);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Waits for the interrupted phases, so the caller does not undo the startup while they are
+     * still running.
+     */
+    private void awaitTermination(final ExecutorService pool)
+    {
+        try
+        {
+            if (!pool.awaitTermination(TERMINATION_TIMEOUT_MS, MILLISECONDS))
+            {
+                LOGGER.warn("Startup phases of {} still running {}ms after a failure", name,
+                    TERMINATION_TIMEOUT_MS);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Return whether each phase depends on the previous one, so none of them can overlap. */
+    private static boolean isSequential(final List<Phase> sorted)
+    {
+        for (int i = 1; i < sorted.size(); i++)
+        {
+            if (!sorted.get(i).dependsOn.contains(sorted.get(i - 1).name))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Runs the phase in the calling thread, which logs its failure. */
+    private void executeInline(final Phase phase)
+    {
+        try (StartupTimeline.Phase timed =
+            StartupTimeline.get(servletContext).phase(name + "." + phase.name))
+        {
+            LOGGER.debug("Running startup phase {}", phase.name);
+            phase.task.run();
+        }
+        catch (RuntimeException ex)
+        {
+            throw ex;
+        }
+        catch (Exception ex)
+        {
+            if (ex instanceof InterruptedException)
+            {
+                Thread.currentThread().interrupt();
+            }
+            throw new RuntimeException(format("Startup phase '%s' failed", phase.name), ex);
+        }
+    }
+
+    private void execute(final Phase phase)
+    {
+        try (StartupTimeline.Phase timed =
+            StartupTimeline.get(servletContext).phase(name + "." + phase.name))
+        {
+            LOGGER.debug("Running startup phase {}", phase.name);
+            phase.task.run();
+        }
+        catch (InterruptedException ex)
+        {
+            // Another phase failed
+            LOGGER.debug("Startup phase {} interrupted", phase.name);
+            Thread.currentThread().interrupt();
+            throw new CompletionException(ex);
+        }
+        catch (Exception ex)
+        {
+            String error = format("Startup phase '%s' failed", phase.name);
+            LOGGER.error(error, ex);
+            throw new CompletionException(new RuntimeException(error, ex));
+        }
+    }
+
+    /** Return the phases sorted so that each one comes after its dependencies. */
+    private List<Phase> sort()
+    {
+        List<Phase> sorted = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        Set<String> visiting = new HashSet<>();
+
+        for (Phase phase : phases.values())
+        {
+            visit(phase, visited, visiting, sorted);
+        }
+        return sorted;
+    }
+
+    private void visit(final Phase phase, final Set<String> visited, final Set<String> visiting,
+        final List<Phase> sorted)
+    {
+        if (visited.contains(phase.name))
+        {
+            return;
+        }
+        if (!visiting.add(phase.name))
+        {
+            throw new IllegalStateException(
+                format("Cyclic dependency in startup phase '%s'", phase.name));
+        }
+
+        for (String dependency : phase.dependsOn)
+        {
+            Phase required = phases.get(dependency);
+            if (required == null)
+            {
+                throw new IllegalStateException(format(
+                    "Startup phase '%s' depends on unknown phase '%s'", phase.name, dependency));
+            }
+            visit(required, visited, visiting, sorted);
+        }
+
+        visiting.remove(phase.name);
+        visited.add(phase.name);
+        sorted.add(phase);
+    }
+
+    private ThreadFactory threadFactory()
+    {
+        ThreadFactory named = new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("startup-" + name + "-%d")
+            .build();
+
+        // Phases may load classes and resources of the webapp
+        return runnable -> {
+            Thread thread = named.newThread(runnable);
+            thread.setContextClassLoader(classLoader);
+            return thread;
+        };
+    }
+
+    private static class Phase
+    {
+        private final String name;
+
+        private final Task task;
+
+        private final List<String> dependsOn;
+
+        Phase(final String name, final Task task, final List<String> dependsOn)
+        {
+            this.name = name;
+            this.task = task;
+            this.dependsOn = dependsOn;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import com.abiquo.commons.web.StartupTimeline;
+
+/**
+ * Logs the {@link StartupTimeline} of the webapp. It must be the last listener declared in the
+ * <code>web.xml</code>, so it is initialized once the rest of the listeners have finished.
+ */
+public class StartupTimelineListener implements ServletContextListener
+{
+    @Override
+    public void contextInitialized(final ServletContextEvent sce)
+    {
+        StartupTimeline.get(sce.getServletContext()).completed();
+    }
+
+    @Override
+    public void contextDestroyed(final ServletContextEvent sce)
+    {
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import com.abiquo.commons.web.StartupTimeline;
+
+/**
+ * Records the initialization and destruction of a listener in the {@link StartupTimeline}. Use it
+ * to time third party listeners registered programmatically with
+ * {@link ServletContext#addListener(java.util.EventListener)}.
+ */
+public class TimedContextListener implements ServletContextListener
+{
+    private final ServletContextListener delegate;
+
+    private final String name;
+
+    public TimedContextListener(final ServletContextListener delegate)
+    {
+        this.delegate = delegate;
+        this.name = delegate.getClass().getSimpleName();
+    }
+
+    @Override
+    public void contextInitialized(final ServletContextEvent sce)
+    {
+        try (StartupTimeline.Phase phase =
+            StartupTimeline.get(sce.getServletContext()).phase(name + ".contextInitialized"))
+        {
+            delegate.contextInitialized(sce);
+        }
+    }
+
+    @Override
+    public void contextDestroyed(final ServletContextEvent sce)
+    {
+        try (StartupTimeline.Phase phase =
+            StartupTimeline.get(sce.getServletContext()).phase(name + ".contextDestroyed"))
+        {
+            delegate.contextDestroyed(sce);
+        }
+    }
+}
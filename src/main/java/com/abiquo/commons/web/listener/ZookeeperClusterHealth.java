@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache.StartMode;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.nodes.PersistentNode;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.abiquo.commons.web.servlet.CheckStatus;
+import com.abiquo.commons.web.servlet.ClusterHealth;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Shares the {@link CheckStatus} of the nodes through zookeeper.
+ * <p>
+ * Each node writes its status in an ephemeral node named after its id and watches the statuses of
+ * the others, so reading them never goes to zookeeper. To limit the writes, the status is only
+ * written when it changes from healthy to unhealthy or the other way round, or when the last write
+ * is older than the <code>abiquo.api.zk.healthPublishIntervalMs</code> property, 30 seconds by
+ * default. Statuses are only published when the node is checked, so the readers must discard the
+ * ones that are too old, see {@link CheckStatus#isFresh(long)}.
+ */
+public class ZookeeperClusterHealth implements ClusterHealth, Closeable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZookeeperClusterHealth.class);
+
+    private static final long PUBLISH_INTERVAL_MS =
+        Long.getLong("abiquo.api.zk.healthPublishIntervalMs", 30000);
+
+    private final CuratorFramework client;
+
+    private final String healthPath;
+
+    private final String nodeId;
+
+    private final PathChildrenCache cache;
+
+    private volatile Map<String, CheckStatus> statuses = Collections.emptyMap();
+
+    /** Status node of this node, created with the first status. Guarded by this. */
+    private PersistentNode node;
+
+    /** Last status written. Guarded by this. */
+    private CheckStatus published;
+
+    private boolean closed;
+
+    public ZookeeperClusterHealth(final CuratorFramework client, final String healthPath,
+        final String nodeId)
+    {
+        this.client = client;
+        this.healthPath = healthPath;
+        this.nodeId = nodeId;
+        cache = new PathChildrenCache(client, healthPath, true);
+        cache.getListenable().addListener((c, event) -> childEvent(event));
+    }
+
+    public void start() throws Exception
+    {
+        cache.start(StartMode.POST_INITIALIZED_EVENT);
+    }
+
+    @Override
+    public synchronized void publish(final CheckStatus status)
+    {
+        if (closed || !mustPublish(status))
+        {
+            return;
+        }
+
+        try
+        {
+            byte[] data = encode(status);
+            if (node == null)
+            {
+                node = new PersistentNode(client, CreateMode.EPHEMERAL, false,
+                    ZKPaths.makePath(healthPath, nodeId), data);
+                node.start();
+            }
+            else
+            {
+                // Written in background, the check does not wait for zookeeper
+                node.setData(data);
+            }
+            published = status;
+        }
+        catch (Exception e)
+        {
+            LOGGER.warn("Cannot publish the check status at " + healthPath, e);
+        }
+    }
+
+    @Override
+    public Map<String, CheckStatus> getStatuses()
+    {
+        return statuses;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        closed = true;
+        try
+        {
+            if (node != null)
+            {
+                node.close();
+            }
+        }
+        finally
+        {
+            cache.close();
+            statuses = Collections.emptyMap();
+        }
+    }
+
+    private boolean mustPublish(final CheckStatus status)
+    {
+        return published == null || published.isHealthy() != status.isHealthy()
+            || status.getCheckedAt() - published.getCheckedAt() >= PUBLISH_INTERVAL_MS;
+    }
+
+    private void childEvent(final PathChildrenCacheEvent event)
+    {
+        switch (event.getType())
+        {
+            case INITIALIZED:
+            case CHILD_ADDED:
+            case CHILD_UPDATED:
+            case CHILD_REMOVED:
+            case CONNECTION_RECONNECTED:
+                refresh();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void refresh()
+    {
+        ImmutableMap.Builder<String, CheckStatus> current = ImmutableMap.builder();
+        for (ChildData child : cache.getCurrentData())
+        {
+            CheckStatus status = decode(child.getData());
+            if (status != null)
+            {
+                current.put(ZKPaths.getNodeFromPath(child.getPath()), status);
+            }
+        }
+        statuses = current.build();
+    }
+
+    private static byte[] encode(final CheckStatus status)
+    {
+        return (status.isHealthy() + " " + status.getCheckedAt() + " " + status.getLatencyMs())
+            .getBytes(UTF_8);
+    }
+
+    private static CheckStatus decode(final byte[] data)
+    {
+        String value = data != null ? new String(data, UTF_8) : "";
+        String[] fields = value.split(" ");
+        if (fields.length != 3)
+        {
+            return null;
+        }
+
+        try
+        {
+            return new CheckStatus(Boolean.parseBoolean(fields[0]), Long.parseLong(fields[1]),
+                Long.parseLong(fields[2]));
+        }
+        catch (NumberFormatException e)
+        {
+            LOGGER.debug("Ignoring invalid check status {}", value);
+            return null;
+        }
+    }
+}
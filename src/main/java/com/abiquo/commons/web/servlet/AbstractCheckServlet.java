@@ -6,6 +6,7 @@
  */
 package com.abiquo.commons.web.servlet;
 
+import static java.lang.System.currentTimeMillis;
 import static java.lang.System.getProperty;
 
 import java.io.IOException;
@@ -18,11 +19,14 @@ import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.abiquo.commons.metric.MetricSink;
+
 /**
  * Base implementation of the Check Servlet.
  * <p>
  * Each Remote Service in the platform must implement its own <code>CheckServlet</code> to let
- * consumers test its availability.
+ * consumers test its availability. The result of the last check is published as a
+ * {@link CheckStatus}, and shared with the rest of the cluster if there is a {@link ClusterHealth}.
  * 
  * @author ibarrera
  */
@@ -35,6 +39,10 @@ public abstract class AbstractCheckServlet extends HttpServlet
     /** The logger. */
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractCheckServlet.class);
 
+    /** Flight Recorder events of the checks, or null if they are not reported. */
+    private static final CheckRecorder RECORDER =
+        MetricSink.CONFIGURED.toFlightRecorder() ? CheckRecorder.flightRecorder() : null;
+
     /** Serial UID. */
     private static final long serialVersionUID = 1L;
 
@@ -63,7 +71,7 @@ public abstract class AbstractCheckServlet extends HttpServlet
     {
         try
         {
-            if (check())
+            if (timedCheck())
             {
                 if (hasDatacenterUuidMediaType(req))
                 {
@@ -86,6 +94,48 @@ public abstract class AbstractCheckServlet extends HttpServlet
         }
     }
 
+    /** Performs the check and publishes its result. */
+    private boolean timedCheck() throws Exception
+    {
+        long start = currentTimeMillis();
+        Object event = RECORDER != null ? RECORDER.startIfRecorded() : null;
+        boolean healthy = false;
+        try
+        {
+            healthy = check();
+            return healthy;
+        }
+        finally
+        {
+            long end = currentTimeMillis();
+            if (event != null)
+            {
+                RECORDER.finish(event, getClass().getName(), healthy);
+            }
+            CheckStatus status = new CheckStatus(healthy, end, end - start);
+            getServletContext().setAttribute(CheckStatus.ATTRIBUTE, status);
+            publish(status);
+        }
+    }
+
+    /** Shares the status with the rest of the cluster, if there is a {@link ClusterHealth}. */
+    private void publish(final CheckStatus status)
+    {
+        ClusterHealth health =
+            (ClusterHealth) getServletContext().getAttribute(ClusterHealth.ATTRIBUTE);
+        if (health != null)
+        {
+            try
+            {
+                health.publish(status);
+            }
+            catch (Exception e)
+            {
+                LOGGER.warn("Cannot publish the check status to the cluster", e);
+            }
+        }
+    }
+
     /**
      * Returns a {@link HttpServletResponse#SC_OK} HTTP code indicating that the Remote Service is
      * available. Fills the body with the datacenter id.
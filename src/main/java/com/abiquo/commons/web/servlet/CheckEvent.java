@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.servlet;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import com.abiquo.commons.metric.MetricSink;
+
+/**
+ * Flight Recorder event of the execution of {@link AbstractCheckServlet#check()}.
+ * <p>
+ * Only used through its {@link Recorder} if {@link MetricSink#toFlightRecorder()}, so this class
+ * is not loaded in runtimes without Flight Recorder. It is built for Java 11, apart from the rest
+ * of the library.
+ */
+@Name("com.abiquo.Check")
+@Label("Check")
+@Category({"Abiquo", "Checks"})
+@Description("Execution of the check of a remote service")
+@StackTrace(false)
+class CheckEvent extends Event
+{
+    private static final EventType TYPE = EventType.getEventType(CheckEvent.class);
+
+    @Label("Servlet")
+    String servlet;
+
+    @Label("Healthy")
+    boolean healthy;
+
+    /** The {@link CheckRecorder} of these events, loaded by name where they are reported. */
+    static final class Recorder implements CheckRecorder
+    {
+        @Override
+        public Object startIfRecorded()
+        {
+            if (!TYPE.isEnabled())
+            {
+                return null;
+            }
+
+            CheckEvent event = new CheckEvent();
+            event.begin();
+            return event;
+        }
+
+        @Override
+        public void finish(final Object started, final String servlet, final boolean healthy)
+        {
+            CheckEvent event = (CheckEvent) started;
+            event.end();
+            if (event.shouldCommit())
+            {
+                event.servlet = servlet;
+                event.healthy = healthy;
+                event.commit();
+            }
+        }
+    }
+}
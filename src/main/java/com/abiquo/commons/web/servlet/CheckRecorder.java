@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.servlet;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reports the executions of {@link AbstractCheckServlet#check()} as Flight Recorder events.
+ * Events are passed as {@link Object}, so the classes built for Java 8 do not depend on the
+ * Flight Recorder API.
+ */
+interface CheckRecorder
+{
+    /** Starts the event, or return null if the event is not being recorded. */
+    Object startIfRecorded();
+
+    /** Ends and commits the event returned by {@link #startIfRecorded()}. */
+    void finish(Object started, String servlet, boolean healthy);
+
+    /**
+     * Return the recorder of {@link CheckEvent}s, or null if they were not built. It is loaded by
+     * name, since the events are only built with JDK 11 or later.
+     */
+    static CheckRecorder flightRecorder()
+    {
+        try
+        {
+            return (CheckRecorder) Class.forName(CheckRecorder.class.getPackage().getName()
+                + ".CheckEvent$Recorder").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e)
+        {
+            LoggerFactory.getLogger(CheckRecorder.class)
+                .warn("Flight Recorder check events are not available: {}", e.toString());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.servlet;
+
+import static java.lang.System.currentTimeMillis;
+
+import javax.servlet.ServletContext;
+
+/**
+ * Result of the last check performed by an {@link AbstractCheckServlet}, published as a
+ * {@link ServletContext} attribute so other components can use it without running the check.
+ */
+public final class CheckStatus
+{
+    /** Name of the {@link ServletContext} attribute holding the last status. */
+    public static final String ATTRIBUTE = CheckStatus.class.getName();
+
+    private final boolean healthy;
+
+    private final long checkedAt;
+
+    private final long latencyMs;
+
+    public CheckStatus(final boolean healthy, final long checkedAt, final long latencyMs)
+    {
+        this.healthy = healthy;
+        this.checkedAt = checkedAt;
+        this.latencyMs = latencyMs;
+    }
+
+    /** Return the last status published in the given context, or null if there is none. */
+    public static CheckStatus get(final ServletContext servletContext)
+    {
+        return (CheckStatus) servletContext.getAttribute(ATTRIBUTE);
+    }
+
+    public boolean isHealthy()
+    {
+        return healthy;
+    }
+
+    /** Return when the check finished, in milliseconds since the epoch. */
+    public long getCheckedAt()
+    {
+        return checkedAt;
+    }
+
+    /** Return the time the check took. */
+    public long getLatencyMs()
+    {
+        return latencyMs;
+    }
+
+    /** Return whether the check finished less than the given milliseconds ago. */
+    public boolean isFresh(final long maxAgeMs)
+    {
+        return currentTimeMillis() - checkedAt <= maxAgeMs;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "healthy=" + healthy + ", checkedAt=" + checkedAt + ", latencyMs=" + latencyMs;
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.servlet;
+
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+
+/**
+ * Shares the {@link CheckStatus} of each node with the rest of the cluster.
+ * <p>
+ * The implementation is published as a {@link ServletContext} attribute by the component
+ * connected to the cluster, so the servlets do not depend on how the statuses are shared. The
+ * {@link AbstractCheckServlet} publishes the result of each check, and the
+ * {@link ClusterHealthServlet} serves the statuses of all the nodes.
+ */
+public interface ClusterHealth
+{
+    /** Name of the {@link ServletContext} attribute holding the cluster health. */
+    String ATTRIBUTE = ClusterHealth.class.getName();
+
+    /** Shares the status of the last check of this node. It must not block. */
+    void publish(CheckStatus status);
+
+    /** Return the last shared status of each node, by node id. */
+    Map<String, CheckStatus> getStatuses();
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.servlet;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the last {@link CheckStatus} of all the nodes of the cluster as a single JSON document,
+ * so monitors do not have to poll the check servlet of each node:
+ *
+ * <pre>
+ * {"healthy":false,"nodes":2,"healthyNodes":1,"statuses":{
+ *   "node1":{"healthy":true,"stale":false,"checkedAt":1500000000000,"latencyMs":12},
+ *   "node2":{"healthy":false,"stale":false,"checkedAt":1500000000000,"latencyMs":5003}}}
+ * </pre>
+ *
+ * The statuses are read from the local {@link ClusterHealth} cache, so serving them does not run
+ * any check. Nodes are only listed once they have been checked, and disappear when they leave
+ * the cluster. A status older than {@link #maxStatusAgeMs()} is stale and reported as unhealthy,
+ * since the node has not been checked recently. Without a {@link ClusterHealth}, the status of
+ * this node is served, with <code>local</code> as its id.
+ */
+public class ClusterHealthServlet extends HttpServlet
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Id of this node when there is no {@link ClusterHealth}. */
+    private static final String LOCAL_NODE = "local";
+
+    /**
+     * Return how long the status of a node is considered. It must be longer than the interval at
+     * which the nodes are checked and their statuses are published.
+     */
+    protected long maxStatusAgeMs()
+    {
+        return 90000;
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest req, final HttpServletResponse resp)
+        throws ServletException, IOException
+    {
+        Map<String, CheckStatus> statuses = new TreeMap<>(statuses());
+        long maxAgeMs = maxStatusAgeMs();
+
+        int healthyNodes = 0;
+        StringBuilder nodes = new StringBuilder();
+        for (Map.Entry<String, CheckStatus> node : statuses.entrySet())
+        {
+            CheckStatus status = node.getValue();
+            boolean stale = !status.isFresh(maxAgeMs);
+            boolean healthy = status.isHealthy() && !stale;
+            if (healthy)
+            {
+                healthyNodes++;
+            }
+            nodes.append(nodes.length() == 0 ? "" : ",");
+            appendString(nodes, node.getKey());
+            nodes.append(":{\"healthy\":").append(healthy).append(",\"stale\":").append(stale)
+                .append(",\"checkedAt\":").append(status.getCheckedAt())
+                .append(",\"latencyMs\":").append(status.getLatencyMs()).append('}');
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"healthy\":").append(healthyNodes > 0 && healthyNodes == statuses.size())
+            .append(",\"nodes\":").append(statuses.size()).append(",\"healthyNodes\":")
+            .append(healthyNodes).append(",\"statuses\":{").append(nodes).append("}}");
+
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.getWriter().write(json.toString());
+    }
+
+    private Map<String, CheckStatus> statuses()
+    {
+        ClusterHealth health =
+            (ClusterHealth) getServletContext().getAttribute(ClusterHealth.ATTRIBUTE);
+        if (health != null)
+        {
+            return health.getStatuses();
+        }
+
+        CheckStatus local = CheckStatus.get(getServletContext());
+        return local != null ? Collections.singletonMap(LOCAL_NODE, local)
+            : Collections.<String, CheckStatus> emptyMap();
+    }
+
+    private static void appendString(final StringBuilder json, final String value)
+    {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                json.append('\\').append(c);
+            }
+            else if (c < ' ')
+            {
+                json.append(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.servlet;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.abiquo.commons.metric.MetricStats;
+import com.abiquo.commons.metric.SlowOperation;
+import com.abiquo.commons.metric.SlowOperations;
+import com.abiquo.commons.metric.Timer;
+
+/**
+ * Dumps the aggregated {@link Timer} measurements and the captured {@link SlowOperations}, the
+ * most recent first, as plain text.
+ */
+public class SlowOperationsServlet extends HttpServlet
+{
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(final HttpServletRequest req, final HttpServletResponse resp)
+        throws ServletException, IOException
+    {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, MetricStats> metric : Timer.stats().entrySet())
+        {
+            out.append(metric.getKey()).append(": ").append(metric.getValue()).append('\n');
+        }
+
+        out.append("\ncaptured: ").append(SlowOperations.getCaptured()).append('\n');
+        for (SlowOperation operation : SlowOperations.snapshot())
+        {
+            operation.appendTo(out, "");
+        }
+
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentType("text/plain");
+        resp.setCharacterEncoding("UTF-8");
+        resp.getWriter().write(out.toString());
+    }
+}
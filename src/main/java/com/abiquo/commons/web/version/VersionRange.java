@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.version;
+
+import static com.abiquo.commons.web.version.WebAppVersion.key;
+import static java.lang.String.format;
+
+/**
+ * Range of versions, from an inclusive lower bound to an exclusive upper bound, compared by their
+ * ordering keys. Matching a version is two <code>long</code> comparisons.
+ * 
+ * @see WebAppVersion#orderingKey
+ */
+public final class VersionRange
+{
+    private final long from;
+
+    private final long to;
+
+    private VersionRange(final long from, final long to)
+    {
+        if (from > to)
+        {
+            throw new IllegalArgumentException(format("Invalid version range [%d, %d)", from, to));
+        }
+        this.from = from;
+        this.to = to;
+    }
+
+    /** Range of the versions with ordering keys in <code>[from, to)</code>. */
+    public static VersionRange between(final long from, final long to)
+    {
+        return new VersionRange(from, to);
+    }
+
+    /** Range of the versions, including snapshots, with the given major and minor numbers. */
+    public static VersionRange sameMinor(final int major, final int minor)
+    {
+        return new VersionRange(key(major, minor, 0), key(major, minor + 1, 0));
+    }
+
+    /** Range of the versions, including snapshots, with the given major number. */
+    public static VersionRange sameMajor(final int major)
+    {
+        return new VersionRange(key(major, 0, 0), key(major + 1, 0, 0));
+    }
+
+    /** Range of the versions, including snapshots, compatible with the given one. */
+    public static VersionRange compatibleWith(final WebAppVersion version)
+    {
+        return sameMinor(version.majorVersion, version.minorVersion);
+    }
+
+    public boolean contains(final long orderingKey)
+    {
+        return orderingKey >= from && orderingKey < to;
+    }
+
+    public boolean contains(final WebAppVersion version)
+    {
+        return contains(version.orderingKey);
+    }
+
+    /**
+     * Return whether the given version string is in the range. Unparseable versions are not.
+     * 
+     * @see WebAppVersion#parseKey(CharSequence)
+     */
+    public boolean contains(final CharSequence version)
+    {
+        long orderingKey = WebAppVersion.parseKey(version);
+        return orderingKey >= 0 && contains(orderingKey);
+    }
+
+    @Override
+    public String toString()
+    {
+        return format("[%d, %d)", from, to);
+    }
+}
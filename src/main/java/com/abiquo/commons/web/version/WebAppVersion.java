@@ -20,13 +20,19 @@ import java.util.regex.Pattern;
 
 import javax.servlet.ServletContext;
 
+import com.abiquo.commons.web.StartupTimeline;
+
 /**
  * Extracts the version of the deployed WAR, reading the properties file packed and generated by
  * maven-archiver. It is heavily inspired from JCloudsVersion extractor.
+ * <p>
+ * Versions are loaded once per {@link ServletContext} and can be compared through their
+ * {@link #orderingKey}, a single <code>long</code> where snapshots sort before their releases.
  * 
  * @author Enric Ruiz
+ * @see VersionRange
  */
-public class WebAppVersion
+public class WebAppVersion implements Comparable<WebAppVersion>
 {
     /**
      * Matches four groups, the major, the minor and the (optional) patch versions separated by one
@@ -36,7 +42,13 @@ public class WebAppVersion
 
     private static final String VERSION_PROPERTY_NAME = "version";
 
-    private static WebAppVersion instance = null;
+    /** Bits used by each of the major, minor and patch numbers in the ordering key. */
+    private static final int KEY_BITS = 20;
+
+    private static final int MAX_KEY_NUMBER = (1 << KEY_BITS) - 1;
+
+    /** Name of the {@link ServletContext} attribute holding the loaded version. */
+    public static final String ATTRIBUTE = WebAppVersion.class.getName();
 
     public final String version;
 
@@ -48,6 +60,9 @@ public class WebAppVersion
 
     public final boolean snapshot;
 
+    /** Key that sorts the versions. See {@link #key(int, int, int, boolean)}. */
+    public final long orderingKey;
+
     private WebAppVersion(final ServletContext servletContext)
     {
         // Read properties file
@@ -76,6 +91,7 @@ public class WebAppVersion
         }
 
         snapshot = version.contains("-SNAPSHOT");
+        orderingKey = key(majorVersion, minorVersion, patchVersion, snapshot);
     }
 
     private String readVersionPropertyFromClasspath(final ServletContext servletContext)
@@ -117,19 +133,149 @@ public class WebAppVersion
             contextPath.replace("/", EMPTY));
     }
 
+    @Override
+    public int compareTo(final WebAppVersion other)
+    {
+        return Long.compare(orderingKey, other.orderingKey);
+    }
+
     @Override
     public String toString()
     {
         return version;
     }
 
+    /**
+     * Return the version of the webapp deployed in the given context. It is read only the first
+     * time it is requested, timed in the {@link StartupTimeline}, and kept in the context so it
+     * goes away with it.
+     */
     public static WebAppVersion get(final ServletContext servletContext)
     {
-        if (instance == null)
+        // Unlocked read first, the version is read-only once loaded
+        WebAppVersion version = (WebAppVersion) servletContext.getAttribute(ATTRIBUTE);
+        if (version == null)
+        {
+            synchronized (WebAppVersion.class)
+            {
+                version = (WebAppVersion) servletContext.getAttribute(ATTRIBUTE);
+                if (version == null)
+                {
+                    try (StartupTimeline.Phase phase =
+                        StartupTimeline.get(servletContext).phase("WebAppVersion.get"))
+                    {
+                        version = new WebAppVersion(servletContext);
+                    }
+                    servletContext.setAttribute(ATTRIBUTE, version);
+                }
+            }
+        }
+
+        return version;
+    }
+
+    /**
+     * Packs a version in a key that keeps its ordering: major, minor and patch numbers are
+     * compared in that order, and a snapshot is lower than its release.
+     */
+    public static long key(final int major, final int minor, final int patch,
+        final boolean snapshot)
+    {
+        if ((major | minor | patch) < 0 || major > MAX_KEY_NUMBER || minor > MAX_KEY_NUMBER
+            || patch > MAX_KEY_NUMBER)
+        {
+            throw new IllegalArgumentException(
+                format("Version '%d.%d.%d' cannot be packed", major, minor, patch));
+        }
+
+        long numbers = (long) major << 2 * KEY_BITS | (long) minor << KEY_BITS | patch;
+        return numbers << 1 | (snapshot ? 0 : 1);
+    }
+
+    /**
+     * Return the lowest key of the given version, that is, the key of its snapshot. Use it for
+     * the bounds of a {@link VersionRange}.
+     */
+    public static long key(final int major, final int minor, final int patch)
+    {
+        return key(major, minor, patch, true);
+    }
+
+    /**
+     * Parses a <code>major.minor[.patch][-qualifier]</code> version into its ordering key without
+     * allocating. Return -1 if the version cannot be parsed.
+     */
+    public static long parseKey(final CharSequence version)
+    {
+        int length = version.length();
+        int major = 0, minor = 0, patch = 0;
+        int part = 0; // 0: major, 1: minor, 2: patch
+        int value = -1;
+        int index = 0;
+
+        for (; index < length; index++)
+        {
+            char c = version.charAt(index);
+            if (c >= '0' && c <= '9')
+            {
+                value = (value < 0 ? 0 : value * 10) + c - '0';
+                if (value > MAX_KEY_NUMBER)
+                {
+                    return -1;
+                }
+            }
+            else if (c == '.' && value >= 0 && part < 2)
+            {
+                if (part == 0)
+                {
+                    major = value;
+                }
+                else
+                {
+                    minor = value;
+                }
+                part++;
+                value = -1;
+            }
+            else
+            {
+                break;
+            }
+        }
+
+        // At least major.minor, not ending with a dot, and only a qualifier afterwards
+        if (value < 0 || part == 0 || index < length && version.charAt(index) != '-')
         {
-            instance = new WebAppVersion(servletContext);
+            return -1;
         }
 
-        return instance;
+        if (part == 1)
+        {
+            minor = value;
+        }
+        else
+        {
+            patch = value;
+        }
+
+        boolean snapshot = index < length && endsWith(version, "-SNAPSHOT");
+        return key(major, minor, patch, snapshot);
+    }
+
+    private static boolean endsWith(final CharSequence value, final String suffix)
+    {
+        int offset = value.length() - suffix.length();
+        if (offset < 0)
+        {
+            return false;
+        }
+        for (int i = 0; i < suffix.length(); i++)
+        {
+            if (value.charAt(offset + i) != suffix.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.filter;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overhead of the {@link RequestLatencyFilter} per request, with the gauges disabled. Run it with
+ * <code>mvn test -Pbenchmarks -Dbenchmark=RequestLatencyFilter</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestLatencyFilterBenchmark
+{
+    private static final FilterChain CHAIN = (request, response) -> {
+    };
+
+    @Param({"/api/version", "/api/cloud/virtualdatacenters/12/virtualappliances/34/"
+        + "virtualmachines/56", "/api/admin/enterprises/550e8400-e29b-41d4-a716-446655440000"})
+    private String path;
+
+    private RequestLatencyFilter filter;
+
+    /** Filter that has reached the maximum number of routes, so it records everything as other. */
+    private RequestLatencyFilter fullFilter;
+
+    private HttpServletRequest request;
+
+    private HttpServletResponse response;
+
+    @Setup
+    public void setup()
+    {
+        filter = new RequestLatencyFilter();
+        fullFilter = new RequestLatencyFilter()
+        {
+            @Override
+            protected int maxRoutes()
+            {
+                return 0;
+            }
+        };
+        request = new HttpServletRequestWrapper(stub(HttpServletRequest.class))
+        {
+            @Override
+            public String getRequestURI()
+            {
+                return path;
+            }
+
+            @Override
+            public String getContextPath()
+            {
+                return "/api";
+            }
+        };
+        response = new HttpServletResponseWrapper(stub(HttpServletResponse.class))
+        {
+            @Override
+            public int getStatus()
+            {
+                return HttpServletResponse.SC_OK;
+            }
+        };
+    }
+
+    @Benchmark
+    public String route()
+    {
+        return filter.route(request);
+    }
+
+    @Benchmark
+    public void doFilter() throws IOException, ServletException
+    {
+        filter.doFilter(request, response, CHAIN);
+    }
+
+    @Benchmark
+    public void doFilterOverRouteLimit() throws IOException, ServletException
+    {
+        fullFilter.doFilter(request, response, CHAIN);
+    }
+
+    /** Return an implementation of the interface whose methods must not be called. */
+    private static <T> T stub(final Class<T> type)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+            (proxy, method, args) -> {
+                throw new UnsupportedOperationException(method.getName());
+            }));
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class ConsistentHashRingTest
+{
+    private static final int PARTITIONS = 4000;
+
+    private static final ImmutableList<String> MEMBERS =
+        ImmutableList.of("node-a", "node-b", "node-c", "node-d");
+
+    @Test
+    public void testEmptyRingHasNoOwner()
+    {
+        assertNull(new ConsistentHashRing(ImmutableList.<String> of()).ownerOf("partition-0"));
+    }
+
+    @Test
+    public void testAssignmentIsDeterministic()
+    {
+        ConsistentHashRing ring = new ConsistentHashRing(MEMBERS);
+        ConsistentHashRing reordered = new ConsistentHashRing(MEMBERS.reverse());
+        for (String partition : partitions())
+        {
+            assertEquals(reordered.ownerOf(partition), ring.ownerOf(partition));
+        }
+    }
+
+    @Test
+    public void testPartitionsAreEvenlyDistributed()
+    {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String owner : owners(new ConsistentHashRing(MEMBERS)).values())
+        {
+            counts.merge(owner, 1, Integer::sum);
+        }
+
+        assertEquals(counts.keySet().size(), MEMBERS.size());
+        int fair = PARTITIONS / MEMBERS.size();
+        for (Map.Entry<String, Integer> count : counts.entrySet())
+        {
+            // Each member owns its fair share +/- 25%
+            assertTrue(Math.abs(count.getValue() - fair) < fair / 4,
+                count.getKey() + " owns " + count.getValue() + " partitions, fair share " + fair);
+        }
+    }
+
+    @Test
+    public void testJoinOnlyMovesPartitionsToTheNewMember()
+    {
+        Map<String, String> before = owners(new ConsistentHashRing(MEMBERS));
+        Map<String, String> after = owners(new ConsistentHashRing(
+            ImmutableList.<String> builder().addAll(MEMBERS).add("node-e").build()));
+
+        int moved = 0;
+        for (String partition : partitions())
+        {
+            if (!before.get(partition).equals(after.get(partition)))
+            {
+                assertEquals(after.get(partition), "node-e",
+                    partition + " moved between existing members");
+                moved++;
+            }
+        }
+
+        // The new member takes around 1/5 of the partitions
+        int fair = PARTITIONS / (MEMBERS.size() + 1);
+        assertTrue(Math.abs(moved - fair) < fair / 4,
+            moved + " partitions moved, expected " + fair);
+    }
+
+    @Test
+    public void testLeaveOnlyMovesPartitionsOfTheLeavingMember()
+    {
+        Map<String, String> before = owners(new ConsistentHashRing(MEMBERS));
+        Map<String, String> after = owners(new ConsistentHashRing(MEMBERS.subList(1, 4)));
+
+        for (String partition : partitions())
+        {
+            if (!before.get(partition).equals(after.get(partition)))
+            {
+                assertEquals(before.get(partition), "node-a",
+                    partition + " moved from a member that did not leave");
+            }
+        }
+    }
+
+    @Test
+    public void testPartitionsOfMatchesOwner()
+    {
+        ConsistentHashRing ring = new ConsistentHashRing(MEMBERS);
+        int total = 0;
+        for (String member : MEMBERS)
+        {
+            for (String partition : ring.partitionsOf(member, partitions()))
+            {
+                assertEquals(ring.ownerOf(partition), member);
+                total++;
+            }
+        }
+        assertEquals(total, PARTITIONS);
+    }
+
+    private static List<String> partitions()
+    {
+        List<String> partitions = new ArrayList<>(PARTITIONS);
+        for (int i = 0; i < PARTITIONS; i++)
+        {
+            partitions.add("partition-" + i);
+        }
+        return partitions;
+    }
+
+    private static Map<String, String> owners(final ConsistentHashRing ring)
+    {
+        Map<String, String> owners = new HashMap<>();
+        for (String partition : partitions())
+        {
+            owners.put(partition, ring.ownerOf(partition));
+        }
+        return owners;
+    }
+}
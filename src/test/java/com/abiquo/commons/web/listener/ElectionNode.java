@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import static com.abiquo.commons.web.listener.CuratorClients.ZK_CONNECTION_TIMEOUT_MS;
+import static com.abiquo.commons.web.listener.CuratorClients.ZK_SESSION_TIMEOUT_MS;
+import static com.abiquo.commons.web.listener.CuratorClients.ZK_SLEEP_MS_BETWEEN_RETRIES;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * A {@link LeadElectionContextListener} with its own zookeeper client and node id, so several of
+ * them can take part in the same election from a single JVM. Each node has its own servlet
+ * context, with the same context path.
+ * <p>
+ * The clients are built with the <code>abiquo.api.zk.*</code> settings of {@link CuratorClients},
+ * so the session timeout and the retries under test are set with the same system properties as in
+ * production.
+ */
+class ElectionNode extends LeadElectionContextListener
+{
+    /** Configured session timeout of the clients. */
+    static final long SESSION_TIMEOUT_MS = ZK_SESSION_TIMEOUT_MS;
+
+    /** Configured connection timeout of the clients. */
+    static final long CONNECTION_TIMEOUT_MS = ZK_CONNECTION_TIMEOUT_MS;
+
+    /**
+     * Time to wait for the election to settle after a failure: the session of the failed leader
+     * expires, the clients reconnect and retry, and the next leader is elected.
+     */
+    static final long SETTLE_TIMEOUT_MS =
+        4 * SESSION_TIMEOUT_MS + CONNECTION_TIMEOUT_MS + ZK_SLEEP_MS_BETWEEN_RETRIES;
+
+    private static final String CONTEXT_PATH = "/election-it";
+
+    private final String connection;
+
+    private final String nodeId;
+
+    private final ServletContextEvent event;
+
+    private volatile CuratorFramework client;
+
+    private volatile long takenAt;
+
+    private volatile long suspendedAt;
+
+    ElectionNode(final String connection, final String nodeId)
+    {
+        this.connection = connection;
+        this.nodeId = nodeId;
+        this.event = new ServletContextEvent(servletContext());
+    }
+
+    void start()
+    {
+        contextInitialized(event);
+    }
+
+    void stop()
+    {
+        contextDestroyed(event);
+    }
+
+    /** Return the zookeeper handle of the current session, to expire it. */
+    ZooKeeper getZooKeeper() throws Exception
+    {
+        return client.getZookeeperClient().getZooKeeper();
+    }
+
+    /** Return the {@link System#nanoTime()} of the last <code>onLeadershipTaken</code>. */
+    long getTakenAt()
+    {
+        return takenAt;
+    }
+
+    /** Return the {@link System#nanoTime()} of the last <code>onLeadershipSuspended</code>. */
+    long getSuspendedAt()
+    {
+        return suspendedAt;
+    }
+
+    @Override
+    protected String getZookeeperConnection()
+    {
+        return connection;
+    }
+
+    @Override
+    protected String getNodeId()
+    {
+        return nodeId;
+    }
+
+    @Override
+    protected CuratorFramework acquireCuratorClient(final String connection)
+    {
+        client = CuratorClients.newClient(connection);
+        client.start();
+        return client;
+    }
+
+    @Override
+    protected void releaseCuratorClient(final CuratorFramework client)
+    {
+        client.close();
+    }
+
+    @Override
+    public void initializeContext(final ServletContextEvent sce)
+    {
+    }
+
+    @Override
+    public void onStart(final ServletContextEvent sce)
+    {
+    }
+
+    @Override
+    public void onShutdown(final ServletContextEvent sce)
+    {
+    }
+
+    @Override
+    public void onLeadershipTaken()
+    {
+        takenAt = nanoTime();
+    }
+
+    @Override
+    public void onLeadershipSuspended()
+    {
+        suspendedAt = nanoTime();
+    }
+
+    @Override
+    public String toString()
+    {
+        return nodeId;
+    }
+
+    /** Return the only leader among the given nodes, waiting for one to be elected. */
+    static ElectionNode awaitLeader(final List<ElectionNode> nodes, final long timeoutMs)
+    {
+        await(() -> nodes.stream().filter(ElectionNode::isLeader).count() == 1, timeoutMs,
+            "a single leader in " + nodes);
+        return nodes.stream().filter(ElectionNode::isLeader).findFirst().get();
+    }
+
+    /** Waits until the condition holds, or fails once the timeout elapses. */
+    static void await(final BooleanSupplier condition, final long timeoutMs,
+        final String description)
+    {
+        long deadline = nanoTime() + MILLISECONDS.toNanos(timeoutMs);
+        while (!condition.getAsBoolean())
+        {
+            if (nanoTime() - deadline > 0)
+            {
+                throw new AssertionError("Timed out waiting for " + description);
+            }
+            try
+            {
+                Thread.sleep(5);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new AssertionError("Interrupted waiting for " + description);
+            }
+        }
+    }
+
+    private static ServletContext servletContext()
+    {
+        Map<String, Object> attributes = new ConcurrentHashMap<>();
+        return (ServletContext) Proxy.newProxyInstance(ServletContext.class.getClassLoader(),
+            new Class<?>[] {ServletContext.class}, (proxy, method, args) -> {
+                switch (method.getName())
+                {
+                    case "getContextPath":
+                    case "getServletContextName":
+                        return CONTEXT_PATH;
+                    case "getAttribute":
+                        return attributes.get(args[0]);
+                    case "setAttribute":
+                        attributes.put((String) args[0], args[1]);
+                        return null;
+                    case "removeAttribute":
+                        attributes.remove(args[0]);
+                        return null;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return CONTEXT_PATH;
+                    default:
+                        return null;
+                }
+            });
+    }
+}
@@ -0,0 +1,294 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import static com.abiquo.commons.web.listener.ElectionNode.CONNECTION_TIMEOUT_MS;
+import static com.abiquo.commons.web.listener.ElectionNode.SESSION_TIMEOUT_MS;
+import static com.abiquo.commons.web.listener.ElectionNode.SETTLE_TIMEOUT_MS;
+import static com.abiquo.commons.web.listener.ElectionNode.await;
+import static com.abiquo.commons.web.listener.ElectionNode.awaitLeader;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.function.IntFunction;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.curator.test.InstanceSpec;
+import org.apache.curator.test.KillSession;
+import org.apache.curator.test.TestingCluster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Injects failures in an election of several {@link LeadElectionContextListener}s, each one with
+ * its own session, against a zookeeper ensemble. Every scenario runs
+ * <code>abiquo.it.failoverRuns</code> times, 5 by default, and reports the time without a leader,
+ * the windows with more than one leader and the latency of the leadership callbacks.
+ * <p>
+ * The timeouts derive from the <code>abiquo.api.zk.*</code> settings the run is configured with,
+ * so the same scenarios measure any session timeout and retry policy.
+ */
+public class LeaderElectionFailoverIT
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(LeaderElectionFailoverIT.class);
+
+    private static final int SERVERS = 3;
+
+    private static final int NODES = 3;
+
+    private static final int RUNS = Integer.getInteger("abiquo.it.failoverRuns", 5);
+
+    private static final long TIMEOUT_MS = SETTLE_TIMEOUT_MS;
+
+    /** Longest time the cluster may be without a leader after a single failure. */
+    private static final long MAX_LEADERLESS_MS = 3 * SESSION_TIMEOUT_MS;
+
+    /**
+     * Longest window with more than one leader. Zookeeper does not rule them out: the old leader
+     * only learns it has lost the session once its connection times out.
+     */
+    private static final long MAX_DUPLICATE_LEADER_MS = CONNECTION_TIMEOUT_MS;
+
+    /** A failure injected in the cluster, given its current leader. */
+    @FunctionalInterface
+    private interface Fault
+    {
+        void inject(ElectionNode leader) throws Exception;
+    }
+
+    private TestingCluster cluster;
+
+    private final List<ElectionNode> nodes = new ArrayList<>();
+
+    private final List<PartitionProxy> proxies = new ArrayList<>();
+
+    @BeforeMethod
+    public void startCluster() throws Exception
+    {
+        cluster = new TestingCluster(SERVERS);
+        cluster.start();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopCluster() throws Exception
+    {
+        for (ElectionNode node : nodes)
+        {
+            node.stop();
+        }
+        nodes.clear();
+        for (PartitionProxy proxy : proxies)
+        {
+            proxy.close();
+        }
+        proxies.clear();
+        cluster.close();
+    }
+
+    @Test
+    public void testLeaderSessionExpiry() throws Exception
+    {
+        startNodes(i -> cluster.getConnectString());
+        failover("session expiry",
+            leader -> KillSession.kill(leader.getZooKeeper(), cluster.getConnectString()), null);
+    }
+
+    @Test
+    public void testLeaderServerRestart() throws Exception
+    {
+        startNodes(i -> cluster.getConnectString());
+        failover("server restart", leader -> {
+            InstanceSpec server = cluster.findConnectionInstance(leader.getZooKeeper());
+            cluster.killServer(server);
+            cluster.restartServer(server);
+        }, null);
+    }
+
+    /**
+     * Each node reaches a different server through its own {@link PartitionProxy}, and the proxy
+     * of the leader drops all its traffic: the ensemble keeps the quorum, but the leader is
+     * isolated from it, until the partition heals.
+     */
+    @Test
+    public void testLeaderClientPartition() throws Exception
+    {
+        List<InstanceSpec> servers = new ArrayList<>(cluster.getInstances());
+        for (int i = 0; i < NODES; i++)
+        {
+            proxies.add(new PartitionProxy(servers.get(i % SERVERS).getPort()));
+        }
+        startNodes(i -> proxies.get(i).getConnectString());
+
+        failover("client partition", leader -> proxies.get(nodes.indexOf(leader)).partition(),
+            next -> proxies.forEach(PartitionProxy::heal));
+    }
+
+    /** Starts the nodes, each one connected to the ensemble with the given connection. */
+    private void startNodes(final IntFunction<String> connection)
+    {
+        for (int i = 0; i < NODES; i++)
+        {
+            ElectionNode node = new ElectionNode(connection.apply(i), "node-" + i);
+            node.start();
+            nodes.add(node);
+        }
+        awaitStable();
+    }
+
+    /**
+     * Injects the fault in the current leader and waits for a leader to take the leadership
+     * after it. Then heals the fault, if needed, and waits for the election to be stable again.
+     */
+    private void failover(final String scenario, final Fault fault, final Fault heal)
+        throws Exception
+    {
+        LongSummaryStatistics leaderless = new LongSummaryStatistics();
+        LongSummaryStatistics duplicates = new LongSummaryStatistics();
+        LongSummaryStatistics takeLatency = new LongSummaryStatistics();
+        LongSummaryStatistics suspendLatency = new LongSummaryStatistics();
+        int duplicateWindows = 0;
+
+        for (int run = 0; run < RUNS; run++)
+        {
+            ElectionNode leader = awaitLeader(nodes, TIMEOUT_MS);
+            LeaderMonitor monitor = new LeaderMonitor(nodes);
+            monitor.start();
+
+            long injectedAt = nanoTime();
+            fault.inject(leader);
+
+            await(() -> nodes.stream()
+                .anyMatch(n -> n.isLeader() && n.getTakenAt() - injectedAt > 0), TIMEOUT_MS,
+                "a leader after the " + scenario);
+            ElectionNode next = awaitLeader(nodes, TIMEOUT_MS);
+            takeLatency.accept(NANOSECONDS.toMillis(next.getTakenAt() - injectedAt));
+            if (next != leader)
+            {
+                await(() -> leader.getSuspendedAt() - injectedAt > 0, TIMEOUT_MS,
+                    "the previous leader to be suspended");
+                suspendLatency.accept(NANOSECONDS.toMillis(leader.getSuspendedAt() - injectedAt));
+            }
+
+            if (heal != null)
+            {
+                heal.inject(next);
+            }
+            awaitStable();
+
+            monitor.finish();
+            leaderless.accept(NANOSECONDS.toMillis(monitor.maxLeaderlessNanos));
+            duplicates.accept(NANOSECONDS.toMillis(monitor.maxDuplicateNanos));
+            duplicateWindows += monitor.duplicateWindows;
+        }
+
+        LOGGER.info(
+            "{}: runs={}, leaderlessMs={}, duplicateLeaderWindows={}, duplicateLeaderMs={}, "
+                + "takeCallbackMs={}, suspendCallbackMs={}",
+            scenario, RUNS, format(leaderless), duplicateWindows, format(duplicates),
+            format(takeLatency), format(suspendLatency));
+
+        assertTrue(duplicates.getMax() < MAX_DUPLICATE_LEADER_MS, scenario + ": "
+            + duplicateWindows + " windows with more than one leader, the longest of "
+            + duplicates.getMax() + "ms");
+        assertTrue(leaderless.getMax() < MAX_LEADERLESS_MS,
+            scenario + ": without leader for " + leaderless.getMax() + "ms");
+    }
+
+    /** Waits for a single leader, seen by all the nodes, with all the nodes participating. */
+    private void awaitStable()
+    {
+        ElectionNode leader = awaitLeader(nodes, TIMEOUT_MS);
+        for (ElectionNode node : nodes)
+        {
+            await(() -> node.getMembership().getView().getParticipants().size() == NODES
+                && leader.getNodeId().equals(node.getMembership().getView().getLeader()),
+                TIMEOUT_MS, "the membership of " + node);
+        }
+    }
+
+    private static String format(final LongSummaryStatistics stats)
+    {
+        return stats.getCount() == 0 ? "-" : "min " + stats.getMin() + " / avg "
+            + Math.round(stats.getAverage()) + " / max " + stats.getMax();
+    }
+
+    /**
+     * Samples {@link LeadElectionContextListener#isLeader()} of all the nodes every millisecond,
+     * and measures the windows with no leader and with more than one leader.
+     */
+    private static final class LeaderMonitor extends Thread
+    {
+        private static final long PERIOD_NANOS = MILLISECONDS.toNanos(1);
+
+        private final List<ElectionNode> nodes;
+
+        private volatile boolean running = true;
+
+        private long maxLeaderlessNanos;
+
+        private long maxDuplicateNanos;
+
+        private int duplicateWindows;
+
+        LeaderMonitor(final List<ElectionNode> nodes)
+        {
+            super("leader-monitor");
+            this.nodes = nodes;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            long leaderlessSince = 0;
+            long duplicateSince = 0;
+            while (running)
+            {
+                long leaders = nodes.stream().filter(ElectionNode::isLeader).count();
+                long now = nanoTime();
+
+                if (leaders == 0 && leaderlessSince == 0)
+                {
+                    leaderlessSince = now;
+                }
+                else if (leaders > 0 && leaderlessSince != 0)
+                {
+                    maxLeaderlessNanos = Math.max(maxLeaderlessNanos, now - leaderlessSince);
+                    leaderlessSince = 0;
+                }
+
+                if (leaders > 1 && duplicateSince == 0)
+                {
+                    duplicateSince = now;
+                    duplicateWindows++;
+                }
+                else if (leaders <= 1 && duplicateSince != 0)
+                {
+                    maxDuplicateNanos = Math.max(maxDuplicateNanos, now - duplicateSince);
+                    duplicateSince = 0;
+                }
+
+                LockSupport.parkNanos(PERIOD_NANOS);
+            }
+        }
+
+        /** Stops sampling. The measurements can be read once it returns. */
+        void finish() throws InterruptedException
+        {
+            running = false;
+            join();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import static com.abiquo.commons.web.listener.ElectionNode.SESSION_TIMEOUT_MS;
+import static com.abiquo.commons.web.listener.ElectionNode.SETTLE_TIMEOUT_MS;
+import static com.abiquo.commons.web.listener.ElectionNode.await;
+import static com.abiquo.commons.web.listener.ElectionNode.awaitLeader;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.curator.test.KillSession;
+import org.apache.curator.test.TestingServer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the {@link LeadershipStats} of the nodes of an election against a real zookeeper server.
+ */
+public class LeadershipStatsIT
+{
+    private static final int NODES = 3;
+
+    private static final long TIMEOUT_MS = SETTLE_TIMEOUT_MS;
+
+    private TestingServer server;
+
+    private List<ElectionNode> nodes;
+
+    @BeforeMethod
+    public void startNodes() throws Exception
+    {
+        server = new TestingServer();
+        nodes = new ArrayList<>();
+        for (int i = 0; i < NODES; i++)
+        {
+            ElectionNode node = new ElectionNode(server.getConnectString(), "node-" + i);
+            node.start();
+            nodes.add(node);
+        }
+
+        // The membership views must be complete before the failover to measure it
+        for (ElectionNode node : nodes)
+        {
+            await(() -> node.getMembership().getView().getParticipants().size() == NODES,
+                TIMEOUT_MS, "the membership of " + node);
+        }
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopNodes() throws Exception
+    {
+        for (ElectionNode node : nodes)
+        {
+            node.stop();
+        }
+        server.close();
+    }
+
+    @Test
+    public void testLeaderIsElectedOnce()
+    {
+        ElectionNode leader = awaitLeader(nodes, TIMEOUT_MS);
+
+        for (ElectionNode node : nodes)
+        {
+            assertEquals(node.getLeadershipStats().getElections(), node == leader ? 1 : 0);
+        }
+    }
+
+    @Test
+    public void testNextLeaderMeasuresTheTimeWithoutLeaderOnShutdown()
+    {
+        ElectionNode leader = awaitLeader(nodes, TIMEOUT_MS);
+        leader.stop();
+        nodes.remove(leader);
+
+        ElectionNode next = awaitLeader(nodes, TIMEOUT_MS);
+        LeadershipStats stats = next.getLeadershipStats();
+        assertEquals(stats.getElections(), 1);
+        assertLeaderless(stats, SESSION_TIMEOUT_MS);
+        assertTrue(leader.getLeadershipStats().getLastLostAt() > 0);
+    }
+
+    @Test
+    public void testNextLeaderMeasuresTheTimeWithoutLeaderOnSessionExpiry() throws Exception
+    {
+        ElectionNode leader = awaitLeader(nodes, TIMEOUT_MS);
+        KillSession.kill(leader.getZooKeeper(), server.getConnectString());
+
+        await(() -> !leader.isLeader(), TIMEOUT_MS, "the expired leader to relinquish");
+        ElectionNode next = awaitLeader(nodes, TIMEOUT_MS);
+        assertNotSame(next, leader);
+        assertEquals(next.getLeadershipStats().getElections(), 1);
+        assertLeaderless(next.getLeadershipStats(), TIMEOUT_MS);
+        assertTrue(leader.getLeadershipStats().getLastLostAt() > 0);
+    }
+
+    private static void assertLeaderless(final LeadershipStats stats, final long maxMs)
+    {
+        assertTrue(stats.getLastLeaderlessMs() >= stats.getLastTakeLatencyMs(), stats.toString());
+        assertTrue(stats.getLastLeaderlessMs() < maxMs, stats.toString());
+        assertEquals(stats.getMaxLeaderlessMs(), stats.getLastLeaderlessMs());
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2008 - Abiquo Holdings S.L. All rights reserved.
+ *
+ * Please see /opt/abiquo/tomcat/webapps/legal/ on Abiquo server
+ * or contact contact@abiquo.com for licensing information.
+ */
+package com.abiquo.commons.web.listener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * TCP proxy in front of a zookeeper server that can silently drop all the traffic, so the clients
+ * connected through it are partitioned from the ensemble: their connections stay open, but no
+ * request or heartbeat gets through in either direction, as with a network partition.
+ */
+final class PartitionProxy implements Closeable
+{
+    private final int targetPort;
+
+    private final ServerSocket server;
+
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService threads = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("partition-proxy-%d").build());
+
+    private volatile boolean partitioned;
+
+    /** Starts a proxy to the server listening on the given local port. */
+    PartitionProxy(final int targetPort) throws IOException
+    {
+        this.targetPort = targetPort;
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        threads.execute(this::accept);
+    }
+
+    String getConnectString()
+    {
+        return server.getInetAddress().getHostAddress() + ":" + server.getLocalPort();
+    }
+
+    /** Drops all the traffic from now on, including the connections opened meanwhile. */
+    void partition()
+    {
+        partitioned = true;
+    }
+
+    /**
+     * Lets the traffic through again. The connections open during the partition are closed, since
+     * they have lost data, so the clients reconnect.
+     */
+    void heal()
+    {
+        closeConnections();
+        partitioned = false;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        server.close();
+        closeConnections();
+        threads.shutdownNow();
+    }
+
+    private void accept()
+    {
+        while (!server.isClosed())
+        {
+            try
+            {
+                Socket client = server.accept();
+                Socket upstream = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+                sockets.add(client);
+                sockets.add(upstream);
+                threads.execute(() -> pump(client, upstream));
+                threads.execute(() -> pump(upstream, client));
+            }
+            catch (IOException e)
+            {
+                // Closed, or the server is down and the client will retry
+            }
+        }
+    }
+
+    private void pump(final Socket from, final Socket to)
+    {
+        byte[] buffer = new byte[8192];
+        try
+        {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            int read;
+            while ((read = in.read(buffer)) >= 0)
+            {
+                if (!partitioned)
+                {
+                    out.write(buffer, 0, read);
+                    out.flush();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // Connection closed
+        }
+        finally
+        {
+            close(from);
+            close(to);
+        }
+    }
+
+    private void closeConnections()
+    {
+        for (Socket socket : sockets)
+        {
+            close(socket);
+        }
+    }
+
+    private void close(final Socket socket)
+    {
+        sockets.remove(socket);
+        try
+        {
+            socket.close();
+        }
+        catch (IOException e)
+        {
+            // Already closed
+        }
+    }
+}